@@ -0,0 +1,40 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the JMH benchmarks of this package, once per thread count. Not a test: run it with
+ * {@code mvn test -Pbenchmark}, optionally with {@code -Dbenchmark.threads=1,8} and
+ * {@code -Dbenchmark.include=Registry} to run some of the benchmarks only. Results are written to
+ * {@code target/jmh-report-<threads>.json}, to be compared against a baseline run.
+ */
+public class BenchmarkRunner {
+
+    @Test
+    public void runBenchmarks() throws Exception {
+        String include = System.getProperty("benchmark.include", "");
+        for (String threads : System.getProperty("benchmark.threads", "1,4,16").split(",")) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(getClass().getPackageName() + "\\..*" + include + ".*Benchmark\\.")
+                    .mode(Mode.Throughput)
+                    .timeUnit(TimeUnit.MILLISECONDS)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .forks(1)
+                    .warmupIterations(3)
+                    .warmupTime(TimeValue.seconds(1))
+                    .measurementIterations(5)
+                    .measurementTime(TimeValue.seconds(2))
+                    .shouldFailOnError(true)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-report-" + threads.trim() + ".json");
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Reading a webhook body, as done for every call: multiply the operations by the payload size for the ingestion
+ * throughput. Bodies above the default spool threshold are written to disk.
+ */
+@State(Scope.Thread)
+public class PayloadReaderBenchmark {
+
+    @Param({"1024", "65536", "1048576", "4194304"})
+    public int size;
+
+    // Whether the body is fed to an HMAC while it is read, as for webhooks registered with a signature
+    @Param({"false", "true"})
+    public boolean signed;
+
+    private byte[] payload;
+    private File spoolDir;
+    private SecretKeySpec key;
+
+    @Setup
+    public void setup() throws IOException {
+        payload = new byte[size];
+        new Random(42).nextBytes(payload);
+        spoolDir = Files.createTempDirectory("webhook-benchmark").toFile();
+        key = new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(spoolDir);
+    }
+
+    @Benchmark
+    public WebhookResponse read() throws Exception {
+        Mac mac = null;
+        if (signed) {
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+        }
+        WebhookResponse response = new PayloadReader(
+                        WebhookStepConfiguration.DEFAULT_SPOOL_THRESHOLD_KB * 1024,
+                        WebhookStepConfiguration.DEFAULT_MAX_PAYLOAD_SIZE_KB * 1024,
+                        spoolDir)
+                .digestWith(mac)
+                .read(new ByteArrayInputStream(payload), payload.length, "UTF-8");
+        response.discard();
+        return response;
+    }
+}
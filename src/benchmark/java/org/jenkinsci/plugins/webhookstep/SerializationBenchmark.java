@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Java serialization of what a waiting pipeline saves with its program state. The serialized sizes do not depend on
+ * timing and are printed once per trial.
+ */
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    @Param({"0", "1024", "65536"})
+    public int bodySize;
+
+    // Number of request headers kept with the response
+    @Param({"0", "16"})
+    public int headers;
+
+    private WebhookResponse response;
+    private WebhookToken token;
+    private byte[] serializedResponse;
+    private byte[] serializedToken;
+
+    @Setup
+    public void setup() throws IOException {
+        Map<String, String> requestHeaders = new LinkedHashMap<>();
+        for (int i = 0; i < headers; i++) {
+            requestHeaders.put("X-Header-" + i, "value-" + i);
+        }
+        response = new WebhookResponse(new byte[bodySize], "UTF-8").withHeaders(WebhookHeaders.of(requestHeaders));
+        token = new WebhookToken("a9b5ee74-23e6-4b8f-90b9-0c4bd0f1a8f3", "http://localhost:8080/webhook-step/", null);
+        serializedResponse = serialize(response);
+        serializedToken = serialize(token);
+        System.out.printf(
+                "WebhookResponse: %d bytes serialized, WebhookToken: %d bytes serialized%n",
+                serializedResponse.length, serializedToken.length);
+    }
+
+    @Benchmark
+    public byte[] serializeResponse() throws IOException {
+        return serialize(response);
+    }
+
+    @Benchmark
+    public Object deserializeResponse() throws IOException, ClassNotFoundException {
+        return deserialize(serializedResponse);
+    }
+
+    @Benchmark
+    public byte[] serializeToken() throws IOException {
+        return serialize(token);
+    }
+
+    @Benchmark
+    public Object deserializeToken() throws IOException, ClassNotFoundException {
+        return deserialize(serializedToken);
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] serialized) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import hudson.util.Secret;
+import java.util.HexFormat;
+import java.util.Random;
+import javax.crypto.Mac;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The checks a call goes through before its body is handed over: the auth token, and the payload signature.
+ */
+@State(Scope.Benchmark)
+public class WebhookAuthBenchmark {
+
+    private static final String AUTH_TOKEN = "0123456789abcdef0123456789abcdef";
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private WebhookRegistration authenticated;
+    private WebhookRegistration signed;
+    private byte[] body;
+    private String signature;
+
+    @Setup
+    public void setup() {
+        authenticated = new WebhookRegistration(null, null).withSecretAuthToken(Secret.fromString(AUTH_TOKEN));
+        signed = new WebhookRegistration(null, null)
+                .withSignature("X-Hub-Signature-256", "HmacSHA256", Secret.fromString("signing-secret"));
+        body = new byte[size];
+        new Random(42).nextBytes(body);
+        Mac mac = signed.newMac();
+        signature = "sha256=" + HexFormat.of().formatHex(mac.doFinal(body));
+    }
+
+    @Benchmark
+    public boolean authToken() {
+        return authenticated.checkAuthToken(AUTH_TOKEN);
+    }
+
+    @Benchmark
+    public boolean wrongAuthToken() {
+        return authenticated.checkAuthToken("fedcba9876543210fedcba9876543210");
+    }
+
+    @Benchmark
+    public boolean signature() {
+        Mac mac = signed.newMac();
+        mac.update(body);
+        return WebhookRegistration.checkSignature(mac.doFinal(), signature);
+    }
+}
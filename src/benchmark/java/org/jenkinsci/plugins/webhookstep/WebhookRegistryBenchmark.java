@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Registry operations of a waiting pipeline and of a call, run by the threads of the benchmark at once. With a
+ * single token every thread contends on the same lock, with many they mostly do not.
+ */
+@State(Scope.Benchmark)
+public class WebhookRegistryBenchmark {
+
+    private static final WebhookResponse RESPONSE = new WebhookResponse(new byte[1024], "UTF-8");
+
+    @Param({"1", "1024"})
+    public int tokens;
+
+    private WebhookRegistry registry;
+    private String[] names;
+    private WaitForWebhookStep[] steps;
+
+    @Setup
+    public void setup() {
+        registry = new WebhookRegistry();
+        names = new String[tokens];
+        steps = new WaitForWebhookStep[tokens];
+        for (int i = 0; i < tokens; i++) {
+            names[i] = "token-" + i;
+            steps[i] = new WaitForWebhookStep(new WebhookToken(names[i], null, null));
+        }
+    }
+
+    /**
+     * Walks the tokens from a different start in each thread.
+     */
+    @State(Scope.Thread)
+    public static class Caller {
+
+        private int next;
+
+        @Setup
+        public void setup(ThreadParams params) {
+            next = params.getThreadIndex();
+        }
+
+        int next(int tokens) {
+            return next++ % tokens;
+        }
+    }
+
+    @Benchmark
+    public WebhookRegistry.Claim waitThenTrigger(Caller caller) {
+        int token = caller.next(tokens);
+        registry.takeOrWait(new WaitForWebhookExecution(null, steps[token]));
+        return registry.claimOrPark(names[token], RESPONSE);
+    }
+
+    @Benchmark
+    public boolean triggerThenWait(Caller caller) {
+        int token = caller.next(tokens);
+        registry.claimOrPark(names[token], RESPONSE);
+        return registry.takeOrWait(new WaitForWebhookExecution(null, steps[token]));
+    }
+
+    @Benchmark
+    public void waitThenDeregister(Caller caller) {
+        WaitForWebhookExecution execution = new WaitForWebhookExecution(null, steps[caller.next(tokens)]);
+        registry.takeOrWait(execution);
+        registry.remove(execution);
+    }
+}
@@ -0,0 +1,154 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+import java.util.List;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.III_Result;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+/**
+ * jcstress tests of the hand-over between a call and a waiting pipeline in {@link WebhookRegistry}. In every
+ * interleaving a delivery has to reach the waiter exactly once, or be kept for a later wait. Run them with
+ * {@code mvn verify -Pjcstress}.
+ */
+public class WebhookRegistryStress {
+
+    private static final String TOKEN = "token";
+    private static final String OTHER_TOKEN = "other-token";
+
+    private WebhookRegistryStress() {}
+
+    static WaitForWebhookExecution waiter() {
+        return new WaitForWebhookExecution(null, new WaitForWebhookStep(new WebhookToken(TOKEN, null, null)));
+    }
+
+    static WebhookResponse delivery() {
+        return new WebhookResponse(new byte[] {'x'}, "UTF-8");
+    }
+
+    @JCStressTest
+    @Description("A call and a wait on the same token, in any order")
+    @Outcome(id = "1, 0", expect = ACCEPTABLE, desc = "The call completed the waiter")
+    @Outcome(id = "0, 1", expect = ACCEPTABLE, desc = "The wait took the parked call")
+    @Outcome(id = "0, 0", expect = FORBIDDEN, desc = "The call was lost")
+    @Outcome(id = "1, 1", expect = FORBIDDEN, desc = "The call was delivered twice")
+    @State
+    public static class ClaimVersusWait {
+
+        private final WebhookRegistry registry = new WebhookRegistry();
+        private final WaitForWebhookExecution waiter = waiter();
+
+        @Actor
+        public void call(II_Result r) {
+            r.r1 = registry.claimOrPark(TOKEN, delivery()).completed.size();
+        }
+
+        @Actor
+        public void await(II_Result r) {
+            r.r2 = registry.takeOrWait(waiter) ? 1 : 0;
+        }
+    }
+
+    @JCStressTest
+    @Description("A call and a waiter giving up at the same time, as on a timeout or an aborted build")
+    @Outcome(id = "1, 0, 0", expect = ACCEPTABLE, desc = "The call completed the waiter before it gave up")
+    @Outcome(id = "0, 1, 1", expect = ACCEPTABLE, desc = "The waiter gave up, the call was kept")
+    @Outcome(expect = FORBIDDEN, desc = "The waiter was completed and gave up, or the call was lost")
+    @State
+    public static class ClaimVersusDeregister {
+
+        private final WebhookRegistry registry = new WebhookRegistry();
+        private final WaitForWebhookExecution waiter = waiter();
+
+        public ClaimVersusDeregister() {
+            registry.takeOrWait(waiter);
+        }
+
+        @Actor
+        public void call(III_Result r) {
+            r.r1 = registry.claimOrPark(TOKEN, delivery()).completed.size();
+        }
+
+        @Actor
+        public void giveUp(III_Result r) {
+            r.r2 = registry.removeWaiter(waiter) ? 1 : 0;
+        }
+
+        @Arbiter
+        public void parked(III_Result r) {
+            r.r3 = registry.getAlreadyPosted().size();
+        }
+    }
+
+    @JCStressTest
+    @Description("Two calls racing for a single waiter")
+    @Outcome(id = "1, 0, 1", expect = ACCEPTABLE, desc = "The first call completed the waiter, the second was kept")
+    @Outcome(id = "0, 1, 1", expect = ACCEPTABLE, desc = "The second call completed the waiter, the first was kept")
+    @Outcome(expect = FORBIDDEN, desc = "The waiter was completed twice, or a call was lost")
+    @State
+    public static class TwoClaimsOneWaiter {
+
+        private final WebhookRegistry registry = new WebhookRegistry();
+
+        public TwoClaimsOneWaiter() {
+            registry.takeOrWait(waiter());
+        }
+
+        @Actor
+        public void first(III_Result r) {
+            r.r1 = registry.claimOrPark(TOKEN, delivery()).completed.size();
+        }
+
+        @Actor
+        public void second(III_Result r) {
+            r.r2 = registry.claimOrPark(TOKEN, delivery()).completed.size();
+        }
+
+        @Arbiter
+        public void parked(III_Result r) {
+            r.r3 = registry.getAlreadyPosted().size();
+        }
+    }
+
+    @JCStressTest
+    @Description("A call completing a waiter on two tokens while it takes the call parked on its other token")
+    @Outcome(id = "1, 0, 1", expect = ACCEPTABLE, desc = "The call completed the waiter, the parked call stayed")
+    @Outcome(id = "0, 1, 1", expect = ACCEPTABLE, desc = "The waiter took the parked call, the call was kept")
+    @Outcome(expect = FORBIDDEN, desc = "The waiter was completed twice, or a call was lost")
+    @State
+    public static class ClaimVersusWaitOnTwoTokens {
+
+        private final WebhookRegistry registry = new WebhookRegistry();
+        private final WaitForAnyWebhookExecution waiter = new WaitForAnyWebhookExecution(
+                null,
+                new WaitForAnyWebhookStep(
+                        List.of(new WebhookToken(TOKEN, null, null), new WebhookToken(OTHER_TOKEN, null, null))));
+
+        public ClaimVersusWaitOnTwoTokens() {
+            registry.claimOrPark(OTHER_TOKEN, delivery());
+        }
+
+        @Actor
+        public void call(III_Result r) {
+            r.r1 = registry.claimOrPark(TOKEN, delivery()).completed.size();
+        }
+
+        @Actor
+        public void await(III_Result r) {
+            r.r2 = registry.takeOrWait(waiter) ? 1 : 0;
+        }
+
+        @Arbiter
+        public void parked(III_Result r) {
+            r.r3 = registry.getAlreadyPosted().size();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Conditions a delivery has to meet to be handed to a waiter, checked by the {@link WebhookRegistry} before the
+ * waiter is offered the delivery. Deliveries that do not match never wake the pipeline.
+ *
+ * <p>Conditions are written {@code name=value}, on a request header or on a JSONPath expression evaluated against
+ * a JSON body. Conditions on the same name are alternatives, and every name has to match. A wildcard expression
+ * matches when any of the values it selects does.
+ */
+final class DeliveryFilter {
+
+    private static final Logger LOGGER = Logger.getLogger(DeliveryFilter.class.getName());
+
+    // Accepted values by header name
+    private final Map<String, Set<String>> headers;
+
+    // Accepted values by JSONPath expression, and the projection selecting all of the expressions at once
+    private final Map<String, Set<String>> json;
+    private final JsonProjection projection;
+
+    private DeliveryFilter(Map<String, Set<String>> headers, Map<String, Set<String>> json) {
+        this.headers = headers;
+        this.json = json;
+        this.projection = json.isEmpty() ? null : JsonProjection.compile(new ArrayList<>(json.keySet()));
+    }
+
+    /**
+     * @return null when there are no conditions
+     * @throws IllegalArgumentException when a condition is not written {@code name=value}, or uses an unsupported
+     *     JSONPath expression
+     */
+    static DeliveryFilter of(Collection<String> headerConditions, Collection<String> jsonConditions) {
+        Map<String, Set<String>> headers = parse(headerConditions);
+        Map<String, Set<String>> json = parse(jsonConditions);
+        return headers.isEmpty() && json.isEmpty() ? null : new DeliveryFilter(headers, json);
+    }
+
+    private static Map<String, Set<String>> parse(Collection<String> conditions) {
+        Map<String, Set<String>> parsed = new LinkedHashMap<>();
+        if (conditions != null) {
+            for (String condition : conditions) {
+                int separator = condition.indexOf('=');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("Filter conditions are written name=value: " + condition);
+                }
+                parsed.computeIfAbsent(condition.substring(0, separator).trim(), key -> new HashSet<>())
+                        .add(condition.substring(separator + 1));
+            }
+        }
+        return parsed;
+    }
+
+    // Checks a delivery that was kept for a later wait, with the headers kept along
+    boolean matches(WebhookResponse response) {
+        return matches(new Delivery(response, response.getRequestHeaders()::select));
+    }
+
+    boolean matches(Delivery delivery) {
+        for (Map.Entry<String, Set<String>> condition : headers.entrySet()) {
+            String name = condition.getKey();
+            List<String> values = delivery.headers.apply(List.of(name)).getAll(name);
+            if (values.stream().noneMatch(condition.getValue()::contains)) {
+                return false;
+            }
+        }
+        if (projection == null) {
+            return true;
+        }
+        Map<String, Object> selected = delivery.project(this);
+        if (selected == null) {
+            return false;
+        }
+        for (Map.Entry<String, Set<String>> condition : json.entrySet()) {
+            if (!matches(selected.get(condition.getKey()), condition.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(Object value, Set<String> accepted) {
+        if (value instanceof List<?> list) {
+            for (Object element : list) {
+                if (matches(element, accepted)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return !(value instanceof Map) && accepted.contains(String.valueOf(value));
+    }
+
+    /**
+     * A delivery being checked against the filters of the waiters on its token. The body is parsed at most once
+     * per filter, and only when a filter has JSON conditions.
+     */
+    static final class Delivery {
+
+        private final WebhookResponse response;
+        private final Function<Collection<String>, WebhookHeaders> headers;
+        private final Map<DeliveryFilter, Map<String, Object>> projected = new IdentityHashMap<>();
+
+        Delivery(WebhookResponse response, Function<Collection<String>, WebhookHeaders> headers) {
+            this.response = response;
+            this.headers = headers;
+        }
+
+        // Null when the body is not JSON
+        private Map<String, Object> project(DeliveryFilter filter) {
+            if (projected.containsKey(filter)) {
+                return projected.get(filter);
+            }
+            Map<String, Object> selected;
+            try (InputStream in = response.openBody()) {
+                selected = filter.projection.project(in, response.getCharset());
+            } catch (IOException e) {
+                LOGGER.fine("Webhook body does not match JSON filters, it is not valid JSON: " + e.getMessage());
+                selected = null;
+            }
+            projected.put(filter, selected);
+            return selected;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Keeps deliveries that were posted before any pipeline waited on their token.
+ *
+ * <p>Each token has a bounded FIFO queue, so that successive waits consume the deliveries in the order they were
+ * posted. Deliveries expire after a configurable time to live, and the total estimated size of the stored
+ * deliveries is kept under a byte budget by evicting the oldest ones first.
+ *
+ * <p>Only the queue of the token is locked while a delivery is added or removed, the totals are counted without
+ * locking. Expired and evicted deliveries are only marked while the queue is locked, {@link #evict()} then tells the
+ * listener and deletes their spool files once no lock is held. The registry calls it after it released the token.
+ */
+final class EarlyDeliveryStore {
+
+    private static final Logger LOGGER = Logger.getLogger(EarlyDeliveryStore.class.getName());
+
+    // Deliveries removed out of age order are dropped from the age queue once they outnumber the stored ones by this
+    private static final int COMPACT_SLACK = 1024;
+
+    enum Result {
+        STORED,
+        // The queue of the token is full, the sender should retry later
+        QUEUE_FULL,
+        // The delivery alone exceeds the byte budget
+        DROPPED
+    }
+
+    /**
+     * Told about every delivery entering or leaving the store, in that order and while no queue is locked.
+     */
+    interface Listener {
+        void stored(String token, WebhookResponse response, long expiresAt);
+
+        void removed(WebhookResponse response);
+    }
+
+    private final ConcurrentHashMap<String, TokenQueue> queues = new ConcurrentHashMap<>();
+
+    // Every stored delivery, oldest first. Deliveries taken meanwhile are only marked and skipped by eviction
+    private final ConcurrentLinkedQueue<Stored> byAge = new ConcurrentLinkedQueue<>();
+
+    // Removed while a queue was locked, left for evict() to announce and discard
+    private final ConcurrentLinkedQueue<Stored> dropped = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger removedOutOfOrder = new AtomicInteger();
+
+    // A single thread evicts at a time, the others leave the work to it
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongSupplier clock;
+    private volatile long ttlMillis;
+    private volatile long maxBytes;
+    private volatile int maxQueued;
+    private volatile Listener listener;
+
+    EarlyDeliveryStore(long ttlMillis, long maxBytes, int maxQueued) {
+        this(ttlMillis, maxBytes, maxQueued, System::currentTimeMillis);
+    }
+
+    EarlyDeliveryStore(long ttlMillis, long maxBytes, int maxQueued, LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.maxBytes = maxBytes;
+        this.maxQueued = maxQueued;
+        this.clock = clock;
+    }
+
+    void configure(long ttlMillis, long maxBytes, int maxQueued) {
+        this.ttlMillis = ttlMillis;
+        this.maxBytes = maxBytes;
+        this.maxQueued = maxQueued;
+        evict();
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Appends a delivery to the queue of its token, unless that queue is full. Going over the byte budget is only
+     * corrected by the next {@link #evict()}.
+     *
+     * @param queueDepth how many deliveries the token may queue, 0 for the configured default
+     */
+    Result put(String token, WebhookResponse response, int queueDepth) {
+        Stored stored = new Stored(token, response, response.estimateSize(), clock.getAsLong() + ttlMillis);
+        if (stored.size > maxBytes) {
+            LOGGER.warning("Dropping delivery for webhook " + token + ", " + stored.size
+                    + " bytes exceed the budget of " + maxBytes + " bytes");
+            stored.removed = true;
+            dropped.add(stored);
+            return Result.DROPPED;
+        }
+        int depth = queueDepth > 0 ? queueDepth : maxQueued;
+        while (true) {
+            TokenQueue queue = queues.computeIfAbsent(token, key -> new TokenQueue());
+            synchronized (queue) {
+                if (queue.detached) {
+                    // Emptied and removed from the map meanwhile
+                    continue;
+                }
+                if (queue.deliveries.size() >= depth) {
+                    return Result.QUEUE_FULL;
+                }
+                queue.deliveries.addLast(stored);
+            }
+            added(stored);
+            return Result.STORED;
+        }
+    }
+
+    /**
+     * Appends a delivery kept before a restart, with its original expiry and regardless of the queue depth.
+     */
+    void restore(String token, WebhookResponse response, long expiresAt) {
+        if (expiresAt <= clock.getAsLong()) {
+            response.discard();
+            return;
+        }
+        Stored stored = new Stored(token, response, response.estimateSize(), expiresAt);
+        while (true) {
+            TokenQueue queue = queues.computeIfAbsent(token, key -> new TokenQueue());
+            synchronized (queue) {
+                if (queue.detached) {
+                    continue;
+                }
+                queue.deliveries.addLast(stored);
+            }
+            added(stored);
+            break;
+        }
+        evict();
+    }
+
+    // Forgets every delivery without discarding them, they are about to be restored
+    void clear() {
+        queues.clear();
+        byAge.clear();
+        dropped.clear();
+        count.set(0);
+        bytes.set(0);
+        removedOutOfOrder.set(0);
+    }
+
+    private void added(Stored stored) {
+        count.incrementAndGet();
+        bytes.addAndGet(stored.size);
+        byAge.add(stored);
+        Listener listener = this.listener;
+        if (listener != null) {
+            // Only the delivery is locked, so that its removal cannot be announced first
+            synchronized (stored) {
+                if (!stored.removed) {
+                    listener.stored(stored.token, stored.response, stored.expiresAt);
+                    stored.announced = true;
+                }
+            }
+        }
+    }
+
+    private void announceRemoved(Stored stored) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            synchronized (stored) {
+                if (stored.announced) {
+                    listener.removed(stored.response);
+                }
+            }
+        }
+    }
+
+    // Called with the queue locked, once the delivery was removed from it
+    private void unlink(TokenQueue queue, Stored stored, boolean outOfOrder) {
+        stored.removed = true;
+        if (queue.deliveries.isEmpty()) {
+            queue.detached = true;
+            queues.remove(stored.token, queue);
+        }
+        count.decrementAndGet();
+        bytes.addAndGet(-stored.size);
+        if (outOfOrder) {
+            removedOutOfOrder.incrementAndGet();
+        }
+    }
+
+    // Called with the queue locked, drops the expired deliveries at its head
+    private void dropExpired(TokenQueue queue) {
+        long now = clock.getAsLong();
+        Stored first;
+        while ((first = queue.deliveries.peekFirst()) != null && first.expiresAt <= now) {
+            queue.deliveries.pollFirst();
+            unlink(queue, first, true);
+            dropped.add(first);
+        }
+    }
+
+    // Returns the oldest delivery of the token that has not expired, leaving it in the store
+    WebhookResponse peek(String token) {
+        TokenQueue queue = queues.get(token);
+        if (queue == null) {
+            return null;
+        }
+        synchronized (queue) {
+            dropExpired(queue);
+            Stored first = queue.deliveries.peekFirst();
+            return first == null ? null : first.response;
+        }
+    }
+
+    // Removes and returns the oldest delivery of the token
+    WebhookResponse take(String token) {
+        TokenQueue queue = queues.get(token);
+        if (queue == null) {
+            return null;
+        }
+        Stored taken;
+        synchronized (queue) {
+            dropExpired(queue);
+            taken = queue.deliveries.pollFirst();
+            if (taken == null) {
+                return null;
+            }
+            unlink(queue, taken, true);
+        }
+        announceRemoved(taken);
+        return taken.response;
+    }
+
+    /**
+     * Hands the oldest delivery of the token to the receiver, and only removes it when the receiver takes it. The
+     * queue stays locked meanwhile, so that the delivery cannot be evicted while it is handed over. The receiver
+     * must not call back into the store.
+     *
+     * @return the delivery taken, null when there was none or the receiver refused it
+     */
+    WebhookResponse takeIf(String token, Predicate<WebhookResponse> receiver) {
+        TokenQueue queue = queues.get(token);
+        if (queue == null) {
+            return null;
+        }
+        Stored taken;
+        synchronized (queue) {
+            dropExpired(queue);
+            taken = queue.deliveries.peekFirst();
+            if (taken == null || !receiver.test(taken.response)) {
+                return null;
+            }
+            queue.deliveries.pollFirst();
+            unlink(queue, taken, true);
+        }
+        announceRemoved(taken);
+        return taken.response;
+    }
+
+    /**
+     * Removes the delivery unless it was taken or evicted meanwhile.
+     *
+     * @return whether the delivery was still stored
+     */
+    boolean remove(String token, WebhookResponse response) {
+        TokenQueue queue = queues.get(token);
+        if (queue == null) {
+            return false;
+        }
+        Stored removed = null;
+        synchronized (queue) {
+            for (Iterator<Stored> iter = queue.deliveries.iterator(); iter.hasNext(); ) {
+                Stored stored = iter.next();
+                if (stored.response == response) {
+                    iter.remove();
+                    unlink(queue, stored, true);
+                    removed = stored;
+                    break;
+                }
+            }
+        }
+        if (removed == null) {
+            return false;
+        }
+        announceRemoved(removed);
+        return true;
+    }
+
+    void removeAll(Collection<String> tokens) {
+        List<Stored> removed = new ArrayList<>();
+        for (String token : tokens) {
+            TokenQueue queue = queues.get(token);
+            if (queue == null) {
+                continue;
+            }
+            synchronized (queue) {
+                Stored stored;
+                while ((stored = queue.deliveries.pollFirst()) != null) {
+                    unlink(queue, stored, true);
+                    removed.add(stored);
+                }
+            }
+        }
+        for (Stored stored : removed) {
+            announceRemoved(stored);
+            stored.response.discard();
+        }
+    }
+
+    // Tokens with stored deliveries, some may have been taken by the time they are looked at
+    List<String> tokens() {
+        return new ArrayList<>(queues.keySet());
+    }
+
+    // Number of deliveries stored for the token
+    int size(String token) {
+        TokenQueue queue = queues.get(token);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.deliveries.size();
+        }
+    }
+
+    // Estimated size of the deliveries stored for the token
+    long bytes(String token) {
+        TokenQueue queue = queues.get(token);
+        long bytes = 0;
+        if (queue != null) {
+            synchronized (queue) {
+                for (Stored stored : queue.deliveries) {
+                    bytes += stored.size;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // Number of stored deliveries, over all tokens
+    int size() {
+        return count.get();
+    }
+
+    long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Removes expired deliveries, then the oldest ones until the store fits its byte budget, and discards what was
+     * removed from the store since the last call. Only one queue at a time is locked, and only to unlink a delivery.
+     */
+    void evict() {
+        List<Stored> evicted = new ArrayList<>();
+        if (evicting.compareAndSet(false, true)) {
+            try {
+                long now = clock.getAsLong();
+                Stored oldest;
+                while ((oldest = byAge.peek()) != null) {
+                    if (!oldest.removed) {
+                        if (oldest.expiresAt > now && bytes.get() <= maxBytes) {
+                            break;
+                        }
+                        if (unlinkOldest(oldest)) {
+                            evicted.add(oldest);
+                        }
+                    }
+                    // Only the evicting thread polls, the head is still the delivery looked at
+                    byAge.poll();
+                }
+                if (removedOutOfOrder.get() > count.get() + COMPACT_SLACK) {
+                    removedOutOfOrder.set(0);
+                    byAge.removeIf(stored -> stored.removed);
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+        for (Stored stored : evicted) {
+            boolean expired = stored.expiresAt <= clock.getAsLong();
+            LOGGER.fine(() -> "Evicted " + (expired ? "expired" : "least recently posted") + " delivery for webhook "
+                    + stored.token);
+        }
+        Stored stored;
+        while ((stored = dropped.poll()) != null) {
+            evicted.add(stored);
+        }
+        for (Stored removed : evicted) {
+            announceRemoved(removed);
+            removed.response.discard();
+        }
+    }
+
+    private boolean unlinkOldest(Stored oldest) {
+        TokenQueue queue = queues.get(oldest.token);
+        if (queue == null) {
+            return false;
+        }
+        synchronized (queue) {
+            // Taken since it was looked at
+            if (oldest.removed) {
+                return false;
+            }
+            // The oldest delivery overall is also the oldest of its token, unless it was restored out of order
+            if (queue.deliveries.peekFirst() == oldest) {
+                queue.deliveries.pollFirst();
+            } else {
+                queue.deliveries.remove(oldest);
+            }
+            unlink(queue, oldest, false);
+            return true;
+        }
+    }
+
+    private static final class TokenQueue {
+        final ArrayDeque<Stored> deliveries = new ArrayDeque<>();
+        // Set once the queue was emptied and left the map, a put has to look the token up again
+        boolean detached;
+    }
+
+    private static final class Stored {
+        final String token;
+        final WebhookResponse response;
+        final long size;
+        final long expiresAt;
+        // Set while the queue of the token is locked
+        volatile boolean removed;
+        // Whether the listener was told about the delivery, guarded by the delivery itself
+        boolean announced;
+
+        Stored(String token, WebhookResponse response, long size, long expiresAt) {
+            this.token = token;
+            this.response = response;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
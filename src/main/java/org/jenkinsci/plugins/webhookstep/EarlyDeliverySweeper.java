@@ -0,0 +1,39 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Drops expired early deliveries even when no further webhook traffic arrives to trigger eviction, and removes
+ * spool files of tokens no run owned once they are older than the retention time.
+ */
+@Extension
+public class EarlyDeliverySweeper extends PeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(EarlyDeliverySweeper.class.getName());
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void doRun() {
+        WebhookRootAction.getRegistry().getAlreadyPosted().evict();
+
+        File[] files = WebhookRootAction.getSharedSpoolDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis()
+                - TimeUnit.MINUTES.toMillis(WebhookStepConfiguration.get().getEarlyDeliveryTtlMinutes());
+        for (File file : files) {
+            if (file.lastModified() < cutoff && !file.delete()) {
+                LOGGER.warning("Failed to delete webhook spool file " + file);
+            }
+        }
+    }
+}
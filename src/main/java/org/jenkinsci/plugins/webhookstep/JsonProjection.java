@@ -0,0 +1,260 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the values selected by a few JSONPath expressions from a JSON body in a single streaming pass. Parts of
+ * the document no expression leads into are skipped without being materialized, so only the selected values are
+ * ever held in memory.
+ *
+ * <p>The supported JSONPath subset is the root {@code $}, child names as {@code .name} or {@code ['name']}, array
+ * indexes as {@code [0]} and the wildcard as {@code .*} or {@code [*]}. An expression with a wildcard selects the
+ * list of the values it matched, one without selects a single value, or null when it matches nothing.
+ */
+final class JsonProjection {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final Pattern STEP =
+            Pattern.compile("\\.([^.\\[\\]]+)|\\['((?:[^'\\\\]|\\\\.)*)'\\]|\\[(\\d+)\\]|\\[\\*\\]");
+
+    private final List<String> expressions;
+    private final List<Step[]> paths;
+
+    private JsonProjection(List<String> expressions, List<Step[]> paths) {
+        this.expressions = expressions;
+        this.paths = paths;
+    }
+
+    /**
+     * @throws IllegalArgumentException when an expression is not in the supported subset
+     */
+    static JsonProjection compile(List<String> expressions) {
+        List<Step[]> paths = new ArrayList<>(expressions.size());
+        for (String expression : expressions) {
+            paths.add(parsePath(expression));
+        }
+        return new JsonProjection(List.copyOf(expressions), paths);
+    }
+
+    /**
+     * Parses the whole document into maps, lists and scalars.
+     */
+    static Object parse(InputStream in, Charset charset) throws IOException {
+        try (JsonParser parser = createParser(in, charset)) {
+            return parser.nextToken() == null ? null : readValue(parser);
+        }
+    }
+
+    /**
+     * Returns the values selected by each expression, keyed by the expression.
+     */
+    Map<String, Object> project(InputStream in, Charset charset) throws IOException {
+        Object[] results = new Object[paths.size()];
+        List<Integer> active = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            active.add(i);
+            if (hasWildcard(paths.get(i))) {
+                results[i] = new ArrayList<>();
+            }
+        }
+        try (JsonParser parser = createParser(in, charset)) {
+            if (parser.nextToken() != null) {
+                walk(parser, 0, active, results);
+            }
+        }
+        Map<String, Object> selected = new LinkedHashMap<>();
+        for (int i = 0; i < results.length; i++) {
+            selected.put(expressions.get(i), results[i]);
+        }
+        return selected;
+    }
+
+    // The parser is on the first token of the value at the given depth, the active paths lead to it
+    private void walk(JsonParser parser, int depth, List<Integer> active, Object[] results) throws IOException {
+        List<Integer> deeper = new ArrayList<>(active.size());
+        boolean taken = false;
+        for (int i : active) {
+            if (paths.get(i).length > depth) {
+                deeper.add(i);
+            } else {
+                taken = true;
+            }
+        }
+        if (taken) {
+            // The value is needed anyway, paths leading further into it are evaluated on the parsed value
+            Object value = readValue(parser);
+            for (int i : active) {
+                collect(value, paths.get(i), depth, i, results);
+            }
+            return;
+        }
+        if (deeper.isEmpty()) {
+            parser.skipChildren();
+            return;
+        }
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                walk(parser, depth + 1, matching(deeper, depth, name, -1), results);
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                walk(parser, depth + 1, matching(deeper, depth, null, index++), results);
+            }
+        }
+    }
+
+    private List<Integer> matching(List<Integer> candidates, int depth, String name, int index) {
+        List<Integer> matching = new ArrayList<>(candidates.size());
+        for (int i : candidates) {
+            if (paths.get(i)[depth].matches(name, index)) {
+                matching.add(i);
+            }
+        }
+        return matching;
+    }
+
+    // Follows the rest of a path into an already parsed value
+    @SuppressWarnings("unchecked")
+    private void collect(Object value, Step[] path, int depth, int result, Object[] results) {
+        if (depth == path.length) {
+            if (results[result] instanceof List) {
+                ((List<Object>) results[result]).add(value);
+            } else {
+                results[result] = value;
+            }
+            return;
+        }
+        Step step = path[depth];
+        if (value instanceof Map) {
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                if (step.matches(entry.getKey(), -1)) {
+                    collect(entry.getValue(), path, depth + 1, result, results);
+                }
+            }
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            for (int i = 0; i < list.size(); i++) {
+                if (step.matches(null, i)) {
+                    collect(list.get(i), path, depth + 1, result, results);
+                }
+            }
+        }
+    }
+
+    private static Object readValue(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        switch (token) {
+            case START_OBJECT -> {
+                Map<String, Object> map = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    parser.nextToken();
+                    map.put(name, readValue(parser));
+                }
+                return map;
+            }
+            case START_ARRAY -> {
+                List<Object> list = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    list.add(readValue(parser));
+                }
+                return list;
+            }
+            case VALUE_STRING -> {
+                return parser.getText();
+            }
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> {
+                return parser.getNumberValue();
+            }
+            case VALUE_TRUE -> {
+                return Boolean.TRUE;
+            }
+            case VALUE_FALSE -> {
+                return Boolean.FALSE;
+            }
+            case VALUE_NULL -> {
+                return null;
+            }
+            default -> throw new IOException("Unexpected JSON token " + token);
+        }
+    }
+
+    private static JsonParser createParser(InputStream in, Charset charset) throws IOException {
+        // Jackson detects the UTF encodings by itself
+        if (charset == null || charset.name().startsWith("UTF-")) {
+            return FACTORY.createParser(in);
+        }
+        return FACTORY.createParser(new InputStreamReader(in, charset));
+    }
+
+    private static Step[] parsePath(String expression) {
+        if (expression == null || !expression.startsWith("$")) {
+            throw new IllegalArgumentException("JSONPath expressions start with $: " + expression);
+        }
+        List<Step> steps = new ArrayList<>();
+        Matcher matcher = STEP.matcher(expression);
+        int position = 1;
+        while (position < expression.length()) {
+            if (!matcher.find(position) || matcher.start() != position) {
+                throw new IllegalArgumentException("Unsupported JSONPath expression: " + expression);
+            }
+            if (matcher.group(1) != null) {
+                steps.add(matcher.group(1).equals("*") ? Step.WILDCARD : new Step(matcher.group(1), -1));
+            } else if (matcher.group(2) != null) {
+                steps.add(new Step(matcher.group(2).replaceAll("\\\\(.)", "$1"), -1));
+            } else if (matcher.group(3) != null) {
+                steps.add(new Step(null, Integer.parseInt(matcher.group(3))));
+            } else {
+                steps.add(Step.WILDCARD);
+            }
+            position = matcher.end();
+        }
+        return steps.toArray(new Step[0]);
+    }
+
+    private static boolean hasWildcard(Step[] path) {
+        for (Step step : path) {
+            if (step == Step.WILDCARD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Step {
+        static final Step WILDCARD = new Step(null, -1);
+
+        final String name;
+        final int index;
+
+        Step(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        // Matches an object member by name, or an array element by index when name is null
+        boolean matches(String name, int index) {
+            if (this == WILDCARD) {
+                return true;
+            }
+            return name != null ? name.equals(this.name) : this.name == null && index == this.index;
+        }
+    }
+}
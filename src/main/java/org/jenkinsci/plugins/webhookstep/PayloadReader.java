@@ -0,0 +1,123 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.UUID;
+import javax.crypto.Mac;
+
+/**
+ * Reads the raw bytes of a webhook body. Bodies up to a threshold are kept in memory, larger ones are streamed to a
+ * spool file so that the memory used per request stays bounded. Nothing is decoded here, the charset is only
+ * recorded so that {@link WebhookResponse#getContent()} can decode the body if a pipeline asks for text.
+ *
+ * <p>When a {@link Mac} is given, every chunk is fed to it as it is read, so that a payload signature can be
+ * verified without a second pass over the body.
+ */
+final class PayloadReader {
+
+    static final String SPOOL_DIRECTORY = "webhook-step";
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final long spoolThreshold;
+    private final long maxSize;
+    private final File spoolDir;
+    private Mac mac;
+
+    PayloadReader(long spoolThreshold, long maxSize, File spoolDir) {
+        this.spoolThreshold = spoolThreshold;
+        this.maxSize = maxSize;
+        this.spoolDir = spoolDir;
+    }
+
+    PayloadReader digestWith(Mac mac) {
+        this.mac = mac;
+        return this;
+    }
+
+    /**
+     * @param contentLength the declared length of the body, or -1 when unknown
+     * @throws PayloadTooLargeException as soon as more than maxSize bytes have been read
+     */
+    WebhookResponse read(InputStream in, long contentLength, String charset) throws IOException {
+        int threshold = (int) Math.min(Math.min(spoolThreshold, maxSize), MAX_ARRAY_SIZE);
+        byte[] buffer = new byte[(int) Math.min(contentLength < 0 ? BUFFER_SIZE : contentLength, threshold)];
+        int size = 0;
+        while (true) {
+            if (size == buffer.length) {
+                if (size >= threshold) {
+                    int next = in.read();
+                    if (next < 0) {
+                        break;
+                    }
+                    if (size >= maxSize) {
+                        throw new PayloadTooLargeException(maxSize);
+                    }
+                    return spool(in, buffer, next, charset);
+                }
+                buffer = Arrays.copyOf(buffer, (int) Math.min(Math.max(2L * size, BUFFER_SIZE), threshold));
+            }
+            int len = in.read(buffer, size, buffer.length - size);
+            if (len < 0) {
+                break;
+            }
+            if (mac != null) {
+                mac.update(buffer, size, len);
+            }
+            size += len;
+        }
+        // When the declared length was right, the buffer already has the exact size
+        byte[] body = size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+        return new WebhookResponse(body, charset);
+    }
+
+    private WebhookResponse spool(InputStream in, byte[] head, int next, String charset) throws IOException {
+        File file = newSpoolFile(spoolDir);
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            out.write(head);
+            out.write(next);
+            if (mac != null) {
+                mac.update((byte) next);
+            }
+            long size = head.length + 1;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                size += len;
+                if (size > maxSize) {
+                    throw new PayloadTooLargeException(maxSize);
+                }
+                if (mac != null) {
+                    mac.update(buffer, 0, len);
+                }
+                out.write(buffer, 0, len);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+        return new WebhookResponse(file, charset);
+    }
+
+    // A file name no other body spooled to the directory uses, the directory is created if needed
+    static File newSpoolFile(File spoolDir) throws IOException {
+        Files.createDirectories(spoolDir.toPath());
+        return new File(spoolDir, UUID.randomUUID() + ".body");
+    }
+
+    static final class PayloadTooLargeException extends IOException {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        PayloadTooLargeException(long maxSize) {
+            super("Webhook body exceeds the limit of " + maxSize + " bytes");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets keyed by webhook token or by client address. A bucket holds as many calls as are allowed per minute
+ * and refills continuously.
+ *
+ * <p>Each bucket is a single {@link AtomicLong} holding the time at which it will be full again, and taking a call
+ * from it is a compare-and-set (the generic cell rate algorithm), so callers never block each other. A full bucket
+ * is the same as no bucket: full buckets are swept once there are many. Past {@link #MAX_BUCKETS}, calls from new keys
+ * are refused until a sweep made room, so that a flood of distinct keys neither grows the map without bound nor
+ * drains a bucket shared with keys that did nothing wrong.
+ */
+final class RateLimiter {
+
+    static final int MAX_BUCKETS = 100_000;
+
+    // Full buckets are only swept once there are this many, and at most once per second
+    private static final int SWEEP_THRESHOLD = 1024;
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    // Key of the calls without one, which share a bucket
+    private static final String UNKNOWN = "";
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    // Nanoseconds between two calls at the sustained rate, 0 when unlimited
+    private volatile long interval;
+
+    // Nanoseconds it takes an empty bucket to fill up
+    private volatile long capacity;
+
+    RateLimiter() {
+        this(System::nanoTime);
+    }
+
+    RateLimiter(LongSupplier clock) {
+        this.clock = clock;
+        nextSweep.set(clock.getAsLong());
+    }
+
+    /**
+     * @param perMinute the calls allowed per minute, also the burst allowed after a quiet minute. 0 for no limit.
+     */
+    synchronized void configure(int perMinute) {
+        long interval = perMinute <= 0 ? 0 : TimeUnit.MINUTES.toNanos(1) / perMinute;
+        if (interval == this.interval) {
+            // Saving other settings keeps the calls already counted
+            return;
+        }
+        buckets.clear();
+        capacity = TimeUnit.MINUTES.toNanos(1);
+        this.interval = interval;
+    }
+
+    /**
+     * Takes a call from the key's bucket.
+     *
+     * @return 0 when the call is allowed, otherwise the nanoseconds until the bucket allows one again
+     */
+    long acquire(String key) {
+        long interval = this.interval;
+        if (interval == 0) {
+            return 0;
+        }
+        long now = clock.getAsLong();
+        AtomicLong bucket = bucket(key == null ? UNKNOWN : key, now);
+        if (bucket == null) {
+            return SWEEP_INTERVAL;
+        }
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, now) + interval;
+            long wait = next - now - capacity;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    int size() {
+        return buckets.size();
+    }
+
+    // Null when there are too many buckets to add one for the key
+    private AtomicLong bucket(String key, long now) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= SWEEP_THRESHOLD) {
+            sweep(now);
+            if (buckets.size() >= MAX_BUCKETS) {
+                return null;
+            }
+        }
+        return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    }
+
+    // A call taken from a bucket while it is swept is forgotten, which at worst lets one more call through
+    private void sweep(long now) {
+        long scheduled = nextSweep.get();
+        if (now - scheduled < 0 || !nextSweep.compareAndSet(scheduled, now + SWEEP_INTERVAL)) {
+            return;
+        }
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+}
@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The delivery IDs a webhook received lately, so that a sender retrying a call it already made gets the original
+ * answer instead of triggering the pipeline again. IDs are kept for {@link #WINDOW} milliseconds, and at most
+ * {@link #CAPACITY} of them, the oldest being forgotten first.
+ *
+ * <p>An ID is reserved once the call is known to be genuine and before it is handed over, so that concurrent
+ * retries are told apart. Only calls that were accepted are remembered: a call that failed, for example because
+ * the queue was full, is processed again when it is retried.
+ */
+final class RecentDeliveries {
+
+    static final int CAPACITY = 1000;
+    static final long WINDOW = TimeUnit.HOURS.toMillis(1);
+
+    // Oldest first, IDs are never moved once added
+    private final LinkedHashMap<String, Outcome> seen = new LinkedHashMap<>();
+    private final LongSupplier clock;
+
+    RecentDeliveries() {
+        this(System::currentTimeMillis);
+    }
+
+    RecentDeliveries(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    // Null when the ID was not seen lately
+    synchronized Outcome get(String id) {
+        expire();
+        return seen.get(id);
+    }
+
+    /**
+     * Reserves the ID for a call being processed.
+     *
+     * @return null when the call is new, otherwise what is known about the first call with the ID
+     */
+    synchronized Outcome reserve(String id) {
+        expire();
+        Outcome previous = seen.get(id);
+        if (previous != null) {
+            return previous;
+        }
+        if (seen.size() >= CAPACITY) {
+            Iterator<Outcome> oldest = seen.values().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        seen.put(id, new Outcome(clock.getAsLong(), 0, null));
+        return null;
+    }
+
+    // Records the answer to a reserved call, or forgets the ID when the call was not accepted
+    synchronized void complete(String id, int status, String result) {
+        Outcome reserved = seen.get(id);
+        if (reserved == null || reserved.isComplete()) {
+            return;
+        }
+        if (status >= 200 && status < 300) {
+            seen.put(id, new Outcome(reserved.seenAt, status, result));
+        } else {
+            seen.remove(id);
+        }
+    }
+
+    synchronized int size() {
+        return seen.size();
+    }
+
+    private void expire() {
+        long now = clock.getAsLong();
+        Iterator<Outcome> oldest = seen.values().iterator();
+        while (oldest.hasNext() && now - oldest.next().seenAt >= WINDOW) {
+            oldest.remove();
+        }
+    }
+
+    /**
+     * The answer given to the first call with an ID.
+     */
+    static final class Outcome {
+        final long seenAt;
+        // 0 while the first call is being processed
+        final int status;
+        final String result;
+
+        Outcome(long seenAt, int status, String result) {
+            this.seenAt = seenAt;
+            this.status = status;
+            this.result = result;
+        }
+
+        boolean isComplete() {
+            return status != 0;
+        }
+    }
+}
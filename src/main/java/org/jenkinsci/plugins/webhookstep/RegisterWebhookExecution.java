@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.webhookstep;
 
+import hudson.model.Run;
 import hudson.util.Secret;
 import jakarta.inject.Inject;
 import java.io.Serial;
@@ -34,16 +35,36 @@ public class RegisterWebhookExecution extends SynchronousStepExecution<WebhookTo
         String token = (step == null || StringUtils.isEmpty(step.token))
                 ? java.util.UUID.randomUUID().toString()
                 : URLEncoder.encode(step.token, StandardCharsets.UTF_8);
-        String jenkinsUrl = getContext().get(hudson.EnvVars.class).get("JENKINS_URL");
+        java.net.URI relative = new java.net.URI("webhook-step/" + token);
+        java.net.URI path = baseUri(getContext()).resolve(relative);
+
+        boolean broadcast = step != null && step.isBroadcast();
+        WebhookToken hook = new WebhookToken(token, path.toString(), this.secretAuthToken, broadcast);
+        WebhookRootAction.registerWebhookToken(hook, registration(step, getContext().get(Run.class)));
+        return hook;
+    }
+
+    static java.net.URI baseUri(StepContext context) throws Exception {
+        String jenkinsUrl = context.get(hudson.EnvVars.class).get("JENKINS_URL");
         if (jenkinsUrl == null || jenkinsUrl.isEmpty()) {
             throw new RuntimeException("JENKINS_URL must be set in the Manage Jenkins console");
         }
-        java.net.URI baseUri = new java.net.URI(jenkinsUrl);
-        java.net.URI relative = new java.net.URI("webhook-step/" + token);
-        java.net.URI path = baseUri.resolve(relative);
+        return new java.net.URI(jenkinsUrl);
+    }
 
-        WebhookToken hook = new WebhookToken(token, path.toString(), this.secretAuthToken);
-        WebhookRootAction.registerAuthToken(hook);
-        return hook;
+    // The settings of the step, without the auth token which is added when the webhook is registered
+    static WebhookRegistration registration(RegisterWebhookStep step, Run<?, ?> run) {
+        WebhookRegistration registration = WebhookRegistration.of(run);
+        if (step != null) {
+            registration.withMaxPayloadSize(step.getMaxPayloadSizeKb() * 1024);
+            registration.withQueueDepth(step.getQueueDepth());
+            registration.withBroadcast(step.isBroadcast());
+            registration.withDeliveryIdHeader(step.getDeliveryIdHeader());
+            if (step.getSignatureSecret() != null) {
+                registration.withSignature(
+                        step.getSignatureHeader(), step.getSignatureAlgorithm(), step.getSignatureSecret());
+            }
+        }
+        return registration;
     }
 }
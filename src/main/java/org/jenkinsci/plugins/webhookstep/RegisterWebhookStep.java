@@ -20,12 +20,32 @@ import org.kohsuke.stapler.QueryParameter;
 
 public class RegisterWebhookStep extends Step {
 
+    static final String DEFAULT_SIGNATURE_HEADER = "X-Hub-Signature-256";
+    static final String DEFAULT_SIGNATURE_ALGORITHM = "HmacSHA256";
+
     // Token identifies the webhook
     String token;
 
     // authToken is the secret associated with the webHook
     private Secret secretAuthToken;
 
+    // Bodies larger than this are rejected, 0 to only apply the global limit
+    private long maxPayloadSizeKb;
+
+    // How many deliveries may wait for the pipeline, 0 for the global default
+    private int queueDepth;
+
+    // One delivery completes every pipeline waiting on the token
+    private boolean broadcast;
+
+    // Header identifying a call across retries, repeated calls are answered without being delivered again
+    private String deliveryIdHeader;
+
+    // HMAC verification of the body, enabled when a signature secret is set
+    private String signatureHeader = DEFAULT_SIGNATURE_HEADER;
+    private String signatureAlgorithm = DEFAULT_SIGNATURE_ALGORITHM;
+    private Secret signatureSecret;
+
     @DataBoundConstructor
     public RegisterWebhookStep() {
         this.token = null;
@@ -47,6 +67,74 @@ public class RegisterWebhookStep extends Step {
         this.secretAuthToken = Secret.fromString(authToken);
     }
 
+    Secret getSecretAuthToken() {
+        return secretAuthToken;
+    }
+
+    public long getMaxPayloadSizeKb() {
+        return maxPayloadSizeKb;
+    }
+
+    @DataBoundSetter
+    public void setMaxPayloadSizeKb(long maxPayloadSizeKb) {
+        this.maxPayloadSizeKb = maxPayloadSizeKb;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    @DataBoundSetter
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public boolean isBroadcast() {
+        return broadcast;
+    }
+
+    @DataBoundSetter
+    public void setBroadcast(boolean broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    public String getDeliveryIdHeader() {
+        return deliveryIdHeader;
+    }
+
+    @DataBoundSetter
+    public void setDeliveryIdHeader(String deliveryIdHeader) {
+        this.deliveryIdHeader = StringUtils.isEmpty(deliveryIdHeader) ? null : deliveryIdHeader;
+    }
+
+    public String getSignatureHeader() {
+        return signatureHeader;
+    }
+
+    @DataBoundSetter
+    public void setSignatureHeader(String signatureHeader) {
+        this.signatureHeader = signatureHeader;
+    }
+
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    @DataBoundSetter
+    public void setSignatureAlgorithm(String signatureAlgorithm) {
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    Secret getSignatureSecret() {
+        return signatureSecret;
+    }
+
+    @DataBoundSetter
+    public void setSignatureSecret(String signatureSecret) {
+        // Encrypt the clear text
+        this.signatureSecret = StringUtils.isEmpty(signatureSecret) ? null : Secret.fromString(signatureSecret);
+    }
+
     public FormValidation doCheckToken(@QueryParameter String value) {
         if (StringUtils.isEmpty(value) || token.equals(URLEncoder.encode(token, StandardCharsets.UTF_8))) {
             return FormValidation.ok();
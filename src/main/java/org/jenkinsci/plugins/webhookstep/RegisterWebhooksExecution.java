@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import hudson.model.Run;
+import hudson.util.Secret;
+import jakarta.inject.Inject;
+import java.io.Serial;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.SynchronousStepExecution;
+
+public class RegisterWebhooksExecution extends SynchronousStepExecution<List<WebhookToken>> {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Secret secretAuthToken;
+
+    @Inject
+    private transient RegisterWebhooksStep step;
+
+    public RegisterWebhooksExecution(RegisterWebhooksStep step, StepContext context, Secret secretAuthToken) {
+        super(context);
+        this.step = step;
+        this.secretAuthToken = secretAuthToken;
+    }
+
+    @Override
+    public List<WebhookToken> run() throws Exception {
+        // Resolved once, the tokens are URL safe and only appended
+        String base = RegisterWebhookExecution.baseUri(getContext()).resolve("webhook-step/").toString();
+        Run<?, ?> run = getContext().get(Run.class);
+
+        // The auth token digest and the signature key are derived once and shared by all the webhooks
+        WebhookRegistration settings =
+                RegisterWebhookExecution.registration(step, run).withSecretAuthToken(secretAuthToken);
+        List<WebhookToken> hooks = new ArrayList<>(step.getCount());
+        Map<String, WebhookRegistration> registrations = new LinkedHashMap<>();
+        for (String token : tokens(step.token, step.getCount())) {
+            hooks.add(new WebhookToken(token, base + token, secretAuthToken, step.isBroadcast()));
+            registrations.put(token, settings.copy());
+        }
+        WebhookRootAction.registerWebhookTokens(registrations);
+        return hooks;
+    }
+
+    // Numbered tokens when a prefix is given, otherwise random UUIDs drawing the random bits for all of them at once
+    static List<String> tokens(String prefix, int count) {
+        List<String> tokens = new ArrayList<>(count);
+        if (!StringUtils.isEmpty(prefix)) {
+            String encoded = URLEncoder.encode(prefix, StandardCharsets.UTF_8);
+            for (int i = 1; i <= count; i++) {
+                tokens.add(encoded + "-" + i);
+            }
+            return tokens;
+        }
+        byte[] bytes = new byte[16 * count];
+        RANDOM.nextBytes(bytes);
+        ByteBuffer random = ByteBuffer.wrap(bytes);
+        for (int i = 0; i < count; i++) {
+            // Version 4 and IETF variant bits, like UUID.randomUUID()
+            long msb = (random.getLong() & ~0xF000L) | 0x4000L;
+            long lsb = (random.getLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+            tokens.add(new UUID(msb, lsb).toString());
+        }
+        return tokens;
+    }
+}
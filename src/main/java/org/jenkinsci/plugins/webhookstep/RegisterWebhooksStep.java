@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import java.util.Collections;
+import java.util.Set;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Creates many webhooks sharing the same settings in one step, for pipelines fanning out to external jobs. The
+ * {@code token}, when set, is used as a prefix numbered from 1 rather than as the token itself.
+ */
+public class RegisterWebhooksStep extends RegisterWebhookStep {
+
+    static final int MAX_COUNT = 10000;
+
+    private final int count;
+
+    @DataBoundConstructor
+    public RegisterWebhooksStep(int count) {
+        if (count < 1 || count > MAX_COUNT) {
+            throw new IllegalArgumentException("registerWebhooks can create between 1 and " + MAX_COUNT + " webhooks");
+        }
+        this.count = count;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new RegisterWebhooksExecution(this, context, getSecretAuthToken());
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Collections.singleton(EnvVars.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "registerWebhooks";
+        }
+
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Creates and returns several webhooks with the same settings at once";
+        }
+    }
+}
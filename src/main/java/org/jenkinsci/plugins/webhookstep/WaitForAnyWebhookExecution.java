@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Run;
+import java.io.File;
+import java.io.Serial;
+import java.util.Collection;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+
+/**
+ * Waits under all the tokens of a {@link WaitForAnyWebhookStep} at once. The first delivery completes the
+ * execution, the registry then removes it from the other tokens, whose later deliveries are queued as if nobody
+ * waited.
+ */
+public class WaitForAnyWebhookExecution extends AbstractStepExecutionImpl implements WebhookWaiter {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    private final WaitForAnyWebhookStep step;
+
+    private String runId;
+
+    private transient File spoolDir;
+
+    // The first delivery, tagged with the token it was posted to
+    private WebhookResponse received;
+
+    // When the step first started waiting, not reset when it waits again after a restart
+    private long waitingSince;
+
+    public WaitForAnyWebhookExecution(StepContext context, WaitForAnyWebhookStep step) {
+        super(context);
+        this.step = step;
+    }
+
+    @Override
+    public Collection<String> getTokens() {
+        return step.getTokens();
+    }
+
+    @Override
+    public String getRunId() {
+        return runId;
+    }
+
+    @Override
+    public long getWaitingSince() {
+        return waitingSince;
+    }
+
+    @Override
+    public File getSpoolDir() {
+        return spoolDir;
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        Run<?, ?> run = getContext().get(Run.class);
+        if (run != null) {
+            runId = run.getExternalizableId();
+            spoolDir = new File(run.getRootDir(), PayloadReader.SPOOL_DIRECTORY);
+        }
+
+        if (waitingSince == 0) {
+            waitingSince = System.currentTimeMillis();
+        }
+
+        boolean delivered;
+        synchronized (this) {
+            delivered = received != null;
+        }
+        // Saved after a delivery was offered but before the step completed, registering again would wait for good
+        if (delivered || WebhookRootAction.registerWaiter(this)) {
+            complete();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void stop(@NonNull Throwable cause) {
+        WebhookRootAction.deregisterWaiter(this);
+        getContext().onFailure(cause);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        try {
+            start();
+        } catch (Exception e) {
+            getContext().onFailure(e);
+        }
+    }
+
+    @Override
+    public synchronized Offer offer(String token, WebhookResponse response) {
+        // Another token may deliver before the registry removed the completed execution from it
+        if (received != null) {
+            return Offer.REJECTED;
+        }
+        received = response.withToken(token);
+        return Offer.COMPLETE;
+    }
+
+    @Override
+    public void onAccepted() {}
+
+    @Override
+    public void complete() {
+        WebhookResponse response;
+        synchronized (this) {
+            response = received;
+        }
+        getContext().onSuccess(response.withSpoolDir(spoolDir));
+    }
+}
@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+public class WaitForAnyWebhookStep extends Step implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    // Only the token strings are kept, the auth tokens stay with the registrations
+    private final List<String> tokens;
+
+    @DataBoundConstructor
+    public WaitForAnyWebhookStep(List<WebhookToken> webhookTokens) {
+        if (webhookTokens == null || webhookTokens.isEmpty()) {
+            throw new IllegalArgumentException("waitForAnyWebhook needs at least one webhook token");
+        }
+        Set<String> tokens = new LinkedHashSet<>();
+        for (WebhookToken webhookToken : webhookTokens) {
+            tokens.add(webhookToken.getToken());
+        }
+        this.tokens = Collections.unmodifiableList(new ArrayList<>(tokens));
+    }
+
+    public List<String> getTokens() {
+        return tokens;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new WaitForAnyWebhookExecution(context, this);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "waitForAnyWebhook";
+        }
+
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Wait for the first of several webhooks to be POSTed to by external systems";
+        }
+
+        @Override
+        public Set<Class<?>> getRequiredContext() {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -1,44 +1,146 @@
 package org.jenkinsci.plugins.webhookstep;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.model.Result;
+import hudson.model.Run;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.CauseOfInterruption;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.FlowInterruptedException;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 
-public class WaitForWebhookExecution extends AbstractStepExecutionImpl {
+public class WaitForWebhookExecution extends AbstractStepExecutionImpl implements WebhookWaiter {
 
     @Serial
     private static final long serialVersionUID = -148119134567863021L;
 
     WaitForWebhookStep step;
 
+    private String runId;
+
+    private transient File spoolDir;
+
+    // Deliveries handed over by the registry and not yet returned to the pipeline
+    private List<WebhookResponse> received = new ArrayList<>();
+
+    // When a batch stops collecting, 0 until its first delivery
+    private long windowDeadline;
+
+    private transient WebhookTimerWheel.Timeout window;
+
+    // When the wait gives up, 0 without a timeout. Absolute so that a restart does not extend it
+    private long timeoutDeadline;
+
+    private transient WebhookTimerWheel.Timeout timeout;
+
+    // When the step first started waiting, not reset when it waits again after a restart
+    private long waitingSince;
+
+    // Compiled from the step on first use, also after a restart
+    private transient volatile DeliveryFilter filter;
+
     public WaitForWebhookExecution(StepContext context, WaitForWebhookStep step) {
         super(context);
         this.step = step;
     }
 
+    @Serial
+    private Object readResolve() {
+        // Executions serialized before batches were supported
+        if (received == null) {
+            received = new ArrayList<>();
+        }
+        return this;
+    }
+
     public String getToken() {
         return step.getToken();
     }
 
     @Override
-    public boolean start() {
-        WebhookResponse response = WebhookRootAction.registerWebhook(this);
+    public Collection<String> getTokens() {
+        return Set.of(step.getToken());
+    }
 
-        if (response != null) {
-            if (step.isWithHeaders()) {
-                getContext().onSuccess(response);
-            } else {
-                getContext().onSuccess(response.getContent());
-            }
-            return true;
+    @Override
+    public Collection<String> getHeaderNames() {
+        // Headers are dropped unless they are returned, so that they do not weigh on the program state
+        return step.isWithHeaders() ? step.getHeaders() : Set.of();
+    }
+
+    @Override
+    public DeliveryFilter getFilter() {
+        DeliveryFilter filter = this.filter;
+        if (filter == null && (step.getHeaderFilter() != null || step.getJsonFilter() != null)) {
+            filter = step.createFilter();
+            this.filter = filter;
+        }
+        return filter;
+    }
+
+    @Override
+    public boolean isBroadcast() {
+        return step.isBroadcast();
+    }
+
+    @Override
+    public String getRunId() {
+        return runId;
+    }
+
+    @Override
+    public long getWaitingSince() {
+        return waitingSince;
+    }
+
+    @Override
+    public File getSpoolDir() {
+        return spoolDir;
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        Run<?, ?> run = getContext().get(Run.class);
+        if (run != null) {
+            runId = run.getExternalizableId();
+            spoolDir = new File(run.getRootDir(), PayloadReader.SPOOL_DIRECTORY);
+        }
+
+        if (waitingSince == 0) {
+            waitingSince = System.currentTimeMillis();
+        }
+
+        if (timeoutDeadline == 0 && step.getTimeout() > 0) {
+            timeoutDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(step.getTimeout());
         }
 
+        // Saved after the last delivery was offered but before the step completed, registering again would wait
+        if (hasReceivedAll() || WebhookRootAction.registerWaiter(this)) {
+            complete();
+            return true;
+        }
+        onAccepted();
+        if (timeoutDeadline != 0) {
+            synchronized (this) {
+                timeout = WebhookTimerWheel.get().schedule(timeoutDeadline, this::onTimeout);
+            }
+        }
         return false;
     }
 
     @Override
     public void stop(@NonNull Throwable cause) {
+        cancelTimers();
         WebhookRootAction.deregisterWebhook(this);
         getContext().onFailure(cause);
     }
@@ -46,14 +148,164 @@ public class WaitForWebhookExecution extends AbstractStepExecutionImpl {
     @Override
     public void onResume() {
         super.onResume();
-        start();
+        try {
+            start();
+        } catch (Exception e) {
+            getContext().onFailure(e);
+        }
     }
 
     public void onTriggered(WebhookResponse response) {
-        if (step.isWithHeaders()) {
-            getContext().onSuccess(response);
-        } else {
-            getContext().onSuccess(response.getContent());
+        offer(step.getToken(), response);
+        complete();
+    }
+
+    @Override
+    public synchronized Offer offer(String token, WebhookResponse response) {
+        received.add(response);
+        if (!step.isBatch()) {
+            return Offer.COMPLETE;
+        }
+        if (windowDeadline == 0 && step.getMaxWait() > 0) {
+            windowDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(step.getMaxWait());
+        }
+        return step.getMaxEvents() > 0 && received.size() >= step.getMaxEvents() ? Offer.COMPLETE : Offer.ACCEPTED;
+    }
+
+    // The delivery that was offered last, null when nothing was received yet
+    synchronized WebhookResponse getLastReceived() {
+        return received.isEmpty() ? null : received.get(received.size() - 1);
+    }
+
+    private synchronized boolean hasReceivedAll() {
+        if (!step.isBatch()) {
+            return !received.isEmpty();
+        }
+        return step.getMaxEvents() > 0 && received.size() >= step.getMaxEvents();
+    }
+
+    /**
+     * Closes the collection window of a batch once the first delivery has arrived. Whatever was received when it
+     * expires is returned, unless the batch was completed earlier.
+     */
+    @Override
+    public synchronized void onAccepted() {
+        if (windowDeadline == 0 || window != null) {
+            return;
+        }
+        window = WebhookTimerWheel.get().schedule(windowDeadline, () -> {
+            // Only the race is decided on the timer thread, parsing and resuming the pipeline may take a while
+            if (WebhookRootAction.getRegistry().removeWaiter(this)) {
+                WebhookDispatcher.get().dispatch(step.getToken(), this::complete);
+            }
+        });
+    }
+
+    /**
+     * Gives up waiting, unless a delivery completed the execution first. Removing the execution from the registry
+     * decides the race with a concurrent delivery: only one of them succeeds. The rest is left to the dispatcher,
+     * off the timer thread.
+     */
+    void onTimeout() {
+        if (WebhookRootAction.getRegistry().removeWaiter(this)) {
+            WebhookDispatcher.get().dispatch(step.getToken(), this::timedOut);
+        }
+    }
+
+    // A batch returns what it received so far, otherwise the default payload is returned or the step fails
+    private void timedOut() {
+        boolean empty;
+        synchronized (this) {
+            empty = received.isEmpty();
+        }
+        if (empty && step.getDefaultPayload() != null) {
+            offer(step.getToken(), new WebhookResponse(step.getDefaultPayload(), Collections.emptyMap()));
+            empty = false;
+        }
+        if (!empty) {
+            complete();
+            return;
+        }
+        cancelTimers();
+        getContext().onFailure(new FlowInterruptedException(Result.ABORTED, true, new ExceededTimeout(step)));
+    }
+
+    private synchronized void cancelTimers() {
+        if (window != null) {
+            window.cancel();
+        }
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    @Override
+    public void complete() {
+        cancelTimers();
+        List<WebhookResponse> responses;
+        synchronized (this) {
+            responses = new ArrayList<>(received);
+            received.clear();
+        }
+        Object result;
+        try {
+            if (step.isBatch()) {
+                List<Object> batch = new ArrayList<>(responses.size());
+                for (WebhookResponse response : responses) {
+                    batch.add(toResult(response));
+                }
+                result = batch;
+            } else {
+                result = toResult(responses.get(0));
+            }
+        } catch (IOException e) {
+            getContext().onFailure(new AbortException("Webhook " + step.getToken() + " did not post valid JSON: "
+                    + e.getMessage()));
+            return;
+        } finally {
+            // Only a response returned as is still reads its body later on
+            if (step.isJson() || !step.isWithHeaders()) {
+                for (WebhookResponse response : responses) {
+                    response.release(spoolDir);
+                }
+            }
+        }
+        getContext().onSuccess(result);
+    }
+
+    // Parsed here rather than when the delivery is offered, so that the token stays locked only briefly
+    private Object toResult(WebhookResponse response) throws IOException {
+        if (!step.isJson()) {
+            return step.isWithHeaders() ? response.withSpoolDir(spoolDir) : response.getContent();
+        }
+        Object json;
+        try (InputStream in = response.openBody()) {
+            json = step.getSelect() == null
+                    ? JsonProjection.parse(in, response.getCharset())
+                    : JsonProjection.compile(step.getSelect()).project(in, response.getCharset());
+        }
+        return step.isWithHeaders() ? response.withJson(json) : json;
+    }
+
+    /**
+     * Recorded when {@code waitForWebhook} gives up after its timeout.
+     */
+    public static final class ExceededTimeout extends CauseOfInterruption {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final String token;
+        private final int timeout;
+
+        ExceededTimeout(WaitForWebhookStep step) {
+            this.token = step.getToken();
+            this.timeout = step.getTimeout();
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "No call to webhook " + token + " within " + timeout + " seconds";
         }
     }
 }
@@ -4,7 +4,9 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
@@ -18,18 +20,52 @@ public class WaitForWebhookStep extends Step implements Serializable {
     @Serial
     private static final long serialVersionUID = -667001655472658819L;
 
+    static final String FORMAT_TEXT = "text";
+    static final String FORMAT_JSON = "json";
+
     private final String token;
+    private final boolean broadcast;
     private boolean withHeaders;
 
+    // The request headers returned with withHeaders, null for all of them
+    private List<String> headers;
+
+    // Batch mode: return a list once this many deliveries were received
+    private int maxEvents;
+
+    // Batch mode: return what was received this many seconds after the first delivery
+    private int maxWait;
+
+    // Give up waiting after this many seconds, 0 to wait forever
+    private int timeout;
+
+    // Returned in place of a delivery when the timeout expires, the step fails when null
+    private String defaultPayload;
+
+    // Whether the body is returned as text, or parsed as JSON
+    private String format;
+
+    // JSONPath expressions of the values returned from a JSON body, null for the whole document
+    private List<String> select;
+
+    // Conditions written name=value that a delivery has to meet to complete the step, see DeliveryFilter
+    private List<String> headerFilter;
+    private List<String> jsonFilter;
+
     @DataBoundConstructor
     public WaitForWebhookStep(WebhookToken webhookToken) {
         this.token = webhookToken.getToken();
+        this.broadcast = webhookToken.isBroadcast();
     }
 
     public String getToken() {
         return token;
     }
 
+    public boolean isBroadcast() {
+        return broadcast;
+    }
+
     public boolean isWithHeaders() {
         return withHeaders;
     }
@@ -39,6 +75,109 @@ public class WaitForWebhookStep extends Step implements Serializable {
         this.withHeaders = withHeaders;
     }
 
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    @DataBoundSetter
+    public void setHeaders(List<String> headers) {
+        this.headers = headers == null || headers.isEmpty() ? null : new ArrayList<>(headers);
+    }
+
+    public int getMaxEvents() {
+        return maxEvents;
+    }
+
+    @DataBoundSetter
+    public void setMaxEvents(int maxEvents) {
+        this.maxEvents = maxEvents;
+    }
+
+    public int getMaxWait() {
+        return maxWait;
+    }
+
+    @DataBoundSetter
+    public void setMaxWait(int maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public String getDefaultPayload() {
+        return defaultPayload;
+    }
+
+    @DataBoundSetter
+    public void setDefaultPayload(String defaultPayload) {
+        this.defaultPayload = defaultPayload;
+    }
+
+    public String getFormat() {
+        return format == null ? FORMAT_TEXT : format;
+    }
+
+    @DataBoundSetter
+    public void setFormat(String format) {
+        if (format != null && !format.equals(FORMAT_TEXT) && !format.equals(FORMAT_JSON)) {
+            throw new IllegalArgumentException("Unsupported format " + format + ", use 'text' or 'json'");
+        }
+        this.format = format == null || format.equals(FORMAT_TEXT) ? null : format;
+    }
+
+    public List<String> getSelect() {
+        return select;
+    }
+
+    @DataBoundSetter
+    public void setSelect(List<String> select) {
+        if (select != null) {
+            // Fails the step before it waits when an expression is not supported
+            JsonProjection.compile(select);
+        }
+        this.select = select == null || select.isEmpty() ? null : new ArrayList<>(select);
+    }
+
+    public List<String> getHeaderFilter() {
+        return headerFilter;
+    }
+
+    @DataBoundSetter
+    public void setHeaderFilter(List<String> headerFilter) {
+        DeliveryFilter.of(headerFilter, null);
+        this.headerFilter = headerFilter == null || headerFilter.isEmpty() ? null : new ArrayList<>(headerFilter);
+    }
+
+    public List<String> getJsonFilter() {
+        return jsonFilter;
+    }
+
+    @DataBoundSetter
+    public void setJsonFilter(List<String> jsonFilter) {
+        DeliveryFilter.of(null, jsonFilter);
+        this.jsonFilter = jsonFilter == null || jsonFilter.isEmpty() ? null : new ArrayList<>(jsonFilter);
+    }
+
+    // Null when every delivery is accepted
+    DeliveryFilter createFilter() {
+        return DeliveryFilter.of(headerFilter, jsonFilter);
+    }
+
+    boolean isJson() {
+        return FORMAT_JSON.equals(format);
+    }
+
+    boolean isBatch() {
+        return maxEvents > 0 || maxWait > 0;
+    }
+
     @Override
     public StepExecution start(StepContext context) {
         return new WaitForWebhookExecution(context, this);
@@ -0,0 +1,131 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Completes waiting executions away from the HTTP request threads and the timer thread. Resuming a pipeline goes
+ * through the CPS VM thread and may save the program, which should not hold back the response to the sender nor the
+ * other timeouts.
+ *
+ * <p>Work is spread over a fixed number of lanes by token, each lane running its tasks one at a time in the order
+ * they were submitted, so that deliveries to a token are handed over in the order they were claimed. A lane only
+ * holds a pool thread while it has work. When a lane is full, the submitting thread waits for room rather than
+ * breaking the order of its token.
+ *
+ * <p>Tasks are only held in memory. A delivery handed over but not dispatched yet is lost if the controller stops,
+ * which is why the sender is only told that it was accepted.
+ */
+final class WebhookDispatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(WebhookDispatcher.class.getName());
+
+    static final int DEFAULT_LANES = Math.max(2, Runtime.getRuntime().availableProcessors());
+    static final int DEFAULT_LANE_CAPACITY = 1024;
+
+    private final Lane[] lanes;
+    private final Executor pool;
+
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    WebhookDispatcher(int lanes, int laneCapacity, Executor pool) {
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane(laneCapacity);
+        }
+        this.pool = pool;
+    }
+
+    static WebhookDispatcher get() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Runs the task after the tasks submitted before for the same token.
+     */
+    void dispatch(String token, Runnable task) {
+        lanes[Math.floorMod(token.hashCode(), lanes.length)].submit(task);
+    }
+
+    // Tasks submitted and not finished yet, over all lanes
+    int getQueued() {
+        int queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.capacity - lane.room.availablePermits();
+        }
+        return queued;
+    }
+
+    long getDispatched() {
+        return dispatched.sum();
+    }
+
+    // How often a request thread had to wait for room in a full lane
+    long getThrottled() {
+        return throttled.sum();
+    }
+
+    private final class Lane implements Runnable {
+        final int capacity;
+        final Semaphore room;
+        final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean running = new AtomicBoolean();
+
+        Lane(int capacity) {
+            this.capacity = capacity;
+            this.room = new Semaphore(capacity);
+        }
+
+        void submit(Runnable task) {
+            if (!room.tryAcquire()) {
+                throttled.increment();
+                room.acquireUninterruptibly();
+            }
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Failed to complete a webhook wait", e);
+                    } finally {
+                        room.release();
+                        dispatched.increment();
+                    }
+                }
+            } finally {
+                running.set(false);
+                // A task may have been added after the last poll, or the lane was stopped by an Error
+                schedule();
+            }
+        }
+    }
+
+    private static final class Shared {
+        static final WebhookDispatcher INSTANCE = new WebhookDispatcher(
+                DEFAULT_LANES,
+                DEFAULT_LANE_CAPACITY,
+                Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "WebhookDispatcher")));
+    }
+}
@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Request headers kept with a delivery: names and values in one flat array, in the order they were received and
+ * including repeated headers. Names are matched case-insensitively, as HTTP requires. A flat array serializes to a
+ * fraction of a map, which matters since deliveries end up in the program state of the pipelines.
+ */
+final class WebhookHeaders implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    static final WebhookHeaders EMPTY = new WebhookHeaders(new String[0]);
+
+    // Alternating names and values
+    private final String[] entries;
+
+    private WebhookHeaders(String[] entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the headers of a request.
+     *
+     * @param names the headers to keep, null for all of them
+     */
+    static WebhookHeaders of(HttpServletRequest request, Collection<String> names) {
+        if (names != null && names.isEmpty()) {
+            return EMPTY;
+        }
+        List<String> entries = new ArrayList<>();
+        // Looking up a few wanted headers is cheaper than enumerating all of them
+        Enumeration<String> iter = names == null ? request.getHeaderNames() : Collections.enumeration(names);
+        while (iter.hasMoreElements()) {
+            String name = iter.nextElement();
+            Enumeration<String> values = request.getHeaders(name);
+            while (values != null && values.hasMoreElements()) {
+                entries.add(name);
+                entries.add(values.nextElement());
+            }
+        }
+        return entries.isEmpty() ? EMPTY : new WebhookHeaders(entries.toArray(new String[0]));
+    }
+
+    // Alternating names and values, as read from the journal
+    static WebhookHeaders of(String[] entries) {
+        return entries.length == 0 ? EMPTY : new WebhookHeaders(entries);
+    }
+
+    static WebhookHeaders of(Map<String, String> headers) {
+        if (headers == null || headers.isEmpty()) {
+            return EMPTY;
+        }
+        String[] entries = new String[2 * headers.size()];
+        int i = 0;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            entries[i++] = header.getKey();
+            entries[i++] = header.getValue();
+        }
+        return new WebhookHeaders(entries);
+    }
+
+    /**
+     * Returns the given headers only.
+     *
+     * @param names the headers to keep, null for all of them
+     */
+    WebhookHeaders select(Collection<String> names) {
+        if (names == null || entries.length == 0) {
+            return this;
+        }
+        List<String> selected = new ArrayList<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            if (contains(names, entries[i])) {
+                selected.add(entries[i]);
+                selected.add(entries[i + 1]);
+            }
+        }
+        return selected.size() == entries.length ? this : new WebhookHeaders(selected.toArray(new String[0]));
+    }
+
+    // Returns the first value of the header, or null when it was not sent
+    String getFirst(String name) {
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i].equalsIgnoreCase(name)) {
+                return entries[i + 1];
+            }
+        }
+        return null;
+    }
+
+    List<String> getAll(String name) {
+        List<String> values = new ArrayList<>(1);
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i].equalsIgnoreCase(name)) {
+                values.add(entries[i + 1]);
+            }
+        }
+        return values;
+    }
+
+    // The first value of each header, looked up case-insensitively
+    Map<String, String> toMap() {
+        Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < entries.length; i += 2) {
+            map.putIfAbsent(entries[i], entries[i + 1]);
+        }
+        return map;
+    }
+
+    // Number of header values, repeated headers counting once per value
+    int size() {
+        return entries.length / 2;
+    }
+
+    String getName(int index) {
+        return entries[2 * index];
+    }
+
+    String getValue(int index) {
+        return entries[2 * index + 1];
+    }
+
+    long estimateSize() {
+        long size = 16 + 4L * entries.length;
+        for (String entry : entries) {
+            size += 40 + (entry == null ? 0 : entry.length());
+        }
+        return size;
+    }
+
+    private static boolean contains(Collection<String> names, String name) {
+        for (String candidate : names) {
+            if (candidate.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
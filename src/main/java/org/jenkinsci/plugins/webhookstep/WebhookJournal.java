@@ -0,0 +1,498 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the registrations and early deliveries held by the {@link WebhookRegistry}, replayed when
+ * the controller starts. A call posted before a restart still reaches its pipeline, and webhooks registered with an
+ * auth token or a signature secret come back protected.
+ *
+ * <p>Changes of the registry are only queued by the threads making them. A single background thread encodes the
+ * queued changes, appends them and syncs the file in batches, at most {@link #FLUSH_INTERVAL_MILLIS} after they were
+ * queued. Once the file has grown well past the live state, it is rewritten with one record per live registration
+ * and delivery.
+ *
+ * <p>Each record is framed by its length and a CRC32, so that a record torn by a crash ends the replay instead of
+ * corrupting it. Auth tokens are kept as their salted digest, signature secrets as {@link Secret#getEncryptedValue()}.
+ */
+final class WebhookJournal implements EarlyDeliveryStore.Listener {
+
+    private static final Logger LOGGER = Logger.getLogger(WebhookJournal.class.getName());
+
+    static final String FILE_NAME = "journal";
+    static final long FLUSH_INTERVAL_MILLIS = 100;
+
+    // The journal is only compacted past this size, and once it is twice as large as the live state
+    private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+
+    private static final byte REGISTER = 1;
+    private static final byte UNREGISTER = 2;
+    private static final byte STORE = 3;
+    private static final byte REMOVE = 4;
+
+    private final WebhookRegistry registry;
+    private final File file;
+    private final ScheduledExecutorService writer;
+
+    // Live state, so that compaction does not need to lock the registry
+    private final Map<String, Registered> registered = new HashMap<>();
+    private final Map<Long, Stored> stored = new LinkedHashMap<>();
+    private final Map<WebhookResponse, Stored> storedIds = new IdentityHashMap<>();
+    private long nextSeq = 1;
+
+    // Encoded size of the live state, only known once the writer encoded it
+    private long liveBytes;
+
+    // Changes not written yet, in the order the registry changed. Deliveries are queued by reference and encoded by
+    // the writer, so that a large body is never copied while the journal is locked.
+    private List<Change> pending = new ArrayList<>();
+
+    // Guards the file, which only the writer touches once the journal is open
+    private final Object writeLock = new Object();
+    private FileOutputStream fileOut;
+    private BufferedOutputStream out;
+    private long fileBytes;
+
+    private WebhookJournal(WebhookRegistry registry, File file) {
+        this.registry = registry;
+        this.file = file;
+        this.writer = Executors.newSingleThreadScheduledExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "WebhookJournal"));
+    }
+
+    /**
+     * Replays the journal into the registry, then records every further change of the registry.
+     */
+    static WebhookJournal open(WebhookRegistry registry, File file) throws IOException {
+        WebhookJournal journal = new WebhookJournal(registry, file);
+        try {
+            journal.replay();
+        } catch (IOException | RuntimeException e) {
+            registry.setJournal(null);
+            journal.writer.shutdown();
+            throw e;
+        }
+        journal.writer.scheduleWithFixedDelay(
+                journal::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return journal;
+    }
+
+    /**
+     * Writes what is still queued and stops recording changes of the registry.
+     */
+    void close() {
+        registry.setJournal(null);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            try {
+                flush();
+                out.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to close webhook journal " + file, e);
+            }
+        }
+    }
+
+    synchronized void registered(String token, WebhookRegistration registration) {
+        Registered current = new Registered(nextSeq++, token, registration);
+        Registered previous = registered.put(token, current);
+        if (previous != null) {
+            forget(previous);
+        }
+        pending.add(current);
+    }
+
+    synchronized void unregistered(String token, WebhookRegistration registration) {
+        Registered current = registered.get(token);
+        if (current == null || current.registration != registration) {
+            return;
+        }
+        registered.remove(token);
+        forget(current);
+        pending.add(() -> record(out -> {
+            out.writeByte(UNREGISTER);
+            out.writeLong(current.seq);
+            writeString(out, token);
+        }));
+    }
+
+    @Override
+    public synchronized void stored(String token, WebhookResponse response, long expiresAt) {
+        Stored current = new Stored(nextSeq++, token, response, expiresAt);
+        stored.put(current.seq, current);
+        storedIds.put(response, current);
+        pending.add(current);
+    }
+
+    @Override
+    public synchronized void removed(WebhookResponse response) {
+        Stored current = storedIds.remove(response);
+        if (current == null) {
+            return;
+        }
+        stored.remove(current.seq);
+        forget(current);
+        pending.add(() -> record(out -> {
+            out.writeByte(REMOVE);
+            out.writeLong(current.seq);
+        }));
+    }
+
+    // Called with the journal locked when an entry leaves the live state
+    private void forget(Live entry) {
+        entry.removed = true;
+        liveBytes -= entry.size;
+    }
+
+    // Called with the journal locked once an entry was encoded, unless it left the live state meanwhile
+    private void sized(Live entry, long size) {
+        if (!entry.removed) {
+            liveBytes += size - entry.size;
+            entry.size = size;
+        }
+    }
+
+    /**
+     * Appends the queued records and syncs them to disk, then compacts the journal when it has grown too large.
+     */
+    void flush() throws IOException {
+        synchronized (writeLock) {
+            List<Change> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new ArrayList<>();
+                // Deliveries taken before they were written need not be encoded at all
+                batch.removeIf(change -> change instanceof Stored entry && entry.removed);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            long[] sizes = new long[batch.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                byte[] record = batch.get(i).encode();
+                out.write(record);
+                fileBytes += record.length;
+                sizes[i] = record.length;
+            }
+            out.flush();
+            fileOut.getChannel().force(false);
+            long live;
+            synchronized (this) {
+                for (int i = 0; i < sizes.length; i++) {
+                    if (batch.get(i) instanceof Live entry) {
+                        sized(entry, sizes[i]);
+                    }
+                }
+                live = liveBytes;
+            }
+            if (fileBytes > Math.max(COMPACT_MIN_BYTES, 2 * live)) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with the live state only. The new file replaces the old one atomically once it is on
+     * disk, so that a crash in between leaves either of them.
+     */
+    void compact() throws IOException {
+        synchronized (writeLock) {
+            List<Live> snapshot;
+            synchronized (this) {
+                snapshot = new ArrayList<>(registered.size() + stored.size());
+                snapshot.addAll(registered.values());
+                snapshot.addAll(stored.values());
+                // Everything queued so far is part of the snapshot
+                pending = new ArrayList<>();
+            }
+
+            File tmp = new File(file.getPath() + ".tmp");
+            long written = 0;
+            long[] sizes = new long[snapshot.size()];
+            try (FileOutputStream tmpOut = new FileOutputStream(tmp);
+                    BufferedOutputStream buffered = new BufferedOutputStream(tmpOut)) {
+                for (int i = 0; i < sizes.length; i++) {
+                    byte[] record = snapshot.get(i).encode();
+                    buffered.write(record);
+                    written += record.length;
+                    sizes[i] = record.length;
+                }
+                buffered.flush();
+                tmpOut.getFD().sync();
+            }
+            synchronized (this) {
+                for (int i = 0; i < sizes.length; i++) {
+                    sized(snapshot.get(i), sizes[i]);
+                }
+            }
+            if (out != null) {
+                out.close();
+            }
+            Files.move(
+                    tmp.toPath(),
+                    file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            openForAppend();
+            fileBytes = written;
+            LOGGER.fine(() -> "Compacted webhook journal " + file + " to " + fileBytes + " bytes");
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to write webhook journal " + file, e);
+        }
+    }
+
+    private void openForAppend() throws FileNotFoundException {
+        fileOut = new FileOutputStream(file, true);
+        out = new BufferedOutputStream(fileOut);
+    }
+
+    private void replay() throws IOException {
+        Map<String, Registered> registrations = new LinkedHashMap<>();
+        Map<Long, Stored> deliveries = new LinkedHashMap<>();
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    byte[] payload = readRecord(in);
+                    if (payload == null) {
+                        break;
+                    }
+                    try {
+                        apply(payload, registrations, deliveries);
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Skipping unreadable webhook journal record", e);
+                    }
+                }
+            }
+        }
+        Files.createDirectories(file.getParentFile().toPath());
+
+        // Replayed through the registry, so that the live state of the journal is rebuilt as well
+        registry.setJournal(this);
+        for (Map.Entry<String, Registered> entry : registrations.entrySet()) {
+            registry.register(entry.getKey(), entry.getValue().registration);
+        }
+        for (Stored delivery : deliveries.values()) {
+            registry.getAlreadyPosted().restore(delivery.token, delivery.response, delivery.expiresAt);
+        }
+        compact();
+        LOGGER.fine(() -> "Replayed " + registrations.size() + " webhook registrations and " + deliveries.size()
+                + " early deliveries from " + file);
+    }
+
+    private void apply(byte[] payload, Map<String, Registered> registrations, Map<Long, Stored> deliveries)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        long seq = in.readLong();
+        nextSeq = Math.max(nextSeq, seq + 1);
+        switch (type) {
+            case REGISTER -> {
+                String token = readString(in);
+                registrations.put(token, new Registered(seq, token, WebhookRegistration.readFrom(in)));
+            }
+            case UNREGISTER -> {
+                String token = readString(in);
+                Registered current = registrations.get(token);
+                // A later registration of the same token stays
+                if (current != null && current.seq == seq) {
+                    registrations.remove(token);
+                }
+            }
+            case STORE -> {
+                String token = readString(in);
+                long expiresAt = in.readLong();
+                deliveries.put(seq, new Stored(seq, token, WebhookResponse.readFrom(in), expiresAt));
+            }
+            case REMOVE -> deliveries.remove(seq);
+            default -> throw new IOException("Unknown webhook journal record type " + type);
+        }
+    }
+
+    // Returns null at the end of the journal, or at a record torn by a crash
+    private byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        try {
+            int crc = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new EOFException("Invalid record length " + length);
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 check = new CRC32();
+            check.update(payload);
+            if ((int) check.getValue() != crc) {
+                throw new EOFException("Record checksum mismatch");
+            }
+            return payload;
+        } catch (EOFException e) {
+            LOGGER.warning("Ignoring the incomplete end of webhook journal " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] registerRecord(long seq, String token, WebhookRegistration registration) {
+        return record(out -> {
+            out.writeByte(REGISTER);
+            out.writeLong(seq);
+            writeString(out, token);
+            registration.writeTo(out);
+        });
+    }
+
+    private static byte[] storeRecord(long id, String token, WebhookResponse response, long expiresAt) {
+        return record(out -> {
+            out.writeByte(STORE);
+            out.writeLong(id);
+            writeString(out, token);
+            out.writeLong(expiresAt);
+            response.writeTo(out);
+        });
+    }
+
+    // Encodes a record framed by its length and checksum
+    private static byte[] record(RecordWriter writer) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            writer.write(new DataOutputStream(payload));
+            byte[] bytes = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            ByteArrayOutputStream framed = new ByteArrayOutputStream(bytes.length + 8);
+            DataOutputStream out = new DataOutputStream(framed);
+            out.writeInt(bytes.length);
+            out.writeInt((int) crc.getValue());
+            out.write(bytes);
+            return framed.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // A change of the registry, encoded by the writer
+    private interface Change {
+        byte[] encode();
+    }
+
+    // A registration or delivery of the live state, which a compaction writes again
+    private abstract static class Live implements Change {
+        final long seq;
+        final String token;
+
+        // Guarded by the journal, 0 until the entry was encoded
+        long size;
+        boolean removed;
+
+        Live(long seq, String token) {
+            this.seq = seq;
+            this.token = token;
+        }
+    }
+
+    private static final class Registered extends Live {
+        final WebhookRegistration registration;
+
+        Registered(long seq, String token, WebhookRegistration registration) {
+            super(seq, token);
+            this.registration = registration;
+        }
+
+        @Override
+        public byte[] encode() {
+            return registerRecord(seq, token, registration);
+        }
+    }
+
+    private static final class Stored extends Live {
+        final WebhookResponse response;
+        final long expiresAt;
+
+        Stored(long seq, String token, WebhookResponse response, long expiresAt) {
+            super(seq, token);
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public byte[] encode() {
+            return storeRecord(seq, token, response, expiresAt);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import jenkins.metrics.api.MetricProvider;
+
+/**
+ * Publishes {@link WebhookMetrics} to the Metrics plugin, when it is installed. Histograms are published as gauges
+ * of their summary, so that values are only recorded once.
+ */
+@Extension(optional = true)
+public class WebhookMetricProvider extends MetricProvider {
+
+    private static final String PREFIX = "jenkins.webhook-step";
+
+    @NonNull
+    @Override
+    public MetricSet getMetricSet() {
+        return getMetricSet(WebhookMetrics.get());
+    }
+
+    static MetricSet getMetricSet(WebhookMetrics metrics) {
+        Map<String, Metric> gauges = new LinkedHashMap<>();
+        gauges.put(name("waiters", "count"), (Gauge<Integer>) metrics::getActiveWaiters);
+        gauges.put(name("early-deliveries", "count"), (Gauge<Integer>) metrics::getQueuedDeliveries);
+        gauges.put(name("early-deliveries", "bytes"), (Gauge<Long>) metrics::getQueuedDeliveryBytes);
+        gauges.put(name("auth-tokens", "count"), (Gauge<Integer>) metrics::getRegisteredAuthTokens);
+        gauges.put(name("dispatcher", "pending"), (Gauge<Integer>) metrics::getPendingDispatches);
+        gauges.put(name("dispatcher", "throttled"), (Gauge<Long>) metrics::getThrottledDispatches);
+        gauges.put(name("auth-failures", "count"), (Gauge<Long>) metrics::getAuthFailures);
+        gauges.put(name("signature-failures", "count"), (Gauge<Long>) metrics::getSignatureFailures);
+        for (int status : WebhookMetrics.RESPONSE_STATUSES) {
+            gauges.put(name("responses", String.valueOf(status)), (Gauge<Long>)
+                    () -> metrics.getResponses().getOrDefault(String.valueOf(status), 0L));
+        }
+        summarize(gauges, "body-size", metrics::getBodySize);
+        summarize(gauges, "ingestion-micros", metrics::getIngestionMicros);
+        summarize(gauges, "trigger-latency-millis", metrics::getTriggerLatencyMillis);
+        return () -> gauges;
+    }
+
+    private static void summarize(
+            Map<String, Metric> gauges, String histogram, Supplier<WebhookMetricsMXBean.Snapshot> snapshot) {
+        Map<String, Function<WebhookMetricsMXBean.Snapshot, Long>> values = new LinkedHashMap<>();
+        values.put("count", WebhookMetricsMXBean.Snapshot::getCount);
+        values.put("mean", WebhookMetricsMXBean.Snapshot::getMean);
+        values.put("max", WebhookMetricsMXBean.Snapshot::getMax);
+        values.put("p50", WebhookMetricsMXBean.Snapshot::getP50);
+        values.put("p95", WebhookMetricsMXBean.Snapshot::getP95);
+        values.put("p99", WebhookMetricsMXBean.Snapshot::getP99);
+        values.forEach((suffix, value) ->
+                gauges.put(name(histogram, suffix), (Gauge<Long>) () -> value.apply(snapshot.get())));
+    }
+
+    private static String name(String... names) {
+        return MetricRegistry.name(PREFIX, names);
+    }
+}
@@ -0,0 +1,201 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms of the webhook ingestion path, and gauges read from the registry on demand. Recording
+ * only touches {@link LongAdder}s, so that requests do not contend on the metrics.
+ *
+ * <p>Exposed over JMX as {@value #OBJECT_NAME}, and to the Metrics plugin when it is installed, see
+ * {@link WebhookMetricProvider}.
+ */
+final class WebhookMetrics implements WebhookMetricsMXBean {
+
+    static final String OBJECT_NAME = "org.jenkinsci.plugins.webhookstep:type=WebhookMetrics";
+
+    // Every status the webhook endpoint answers with, 500 being recorded when the request failed unexpectedly
+    static final int[] RESPONSE_STATUSES = {200, 202, 400, 403, 404, 409, 413, 429, 500};
+
+    private static final WebhookMetrics INSTANCE = new WebhookMetrics(WebhookRootAction.getRegistry());
+
+    private final WebhookRegistry registry;
+
+    private final ConcurrentHashMap<Integer, LongAdder> responses = new ConcurrentHashMap<>();
+    private final LongAdder authFailures = new LongAdder();
+    private final LongAdder signatureFailures = new LongAdder();
+
+    final Histogram bodySize = new Histogram();
+    final Histogram ingestionMicros = new Histogram();
+    final Histogram triggerLatencyMillis = new Histogram();
+
+    WebhookMetrics(WebhookRegistry registry) {
+        this.registry = registry;
+    }
+
+    static WebhookMetrics get() {
+        return INSTANCE;
+    }
+
+    void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            Logger.getLogger(WebhookMetrics.class.getName()).log(Level.WARNING, "Failed to register " + OBJECT_NAME, e);
+        }
+    }
+
+    void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            // Not registered
+        }
+    }
+
+    void recordResponse(int status, long elapsedNanos) {
+        responses.computeIfAbsent(status, key -> new LongAdder()).increment();
+        ingestionMicros.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    void recordAuthFailure() {
+        authFailures.increment();
+    }
+
+    void recordSignatureFailure() {
+        signatureFailures.increment();
+    }
+
+    @Override
+    public int getActiveWaiters() {
+        return registry.countWaiters();
+    }
+
+    @Override
+    public int getQueuedDeliveries() {
+        return registry.getAlreadyPosted().size();
+    }
+
+    @Override
+    public long getQueuedDeliveryBytes() {
+        return registry.getAlreadyPosted().bytes();
+    }
+
+    @Override
+    public int getRegisteredAuthTokens() {
+        return registry.countAuthTokens();
+    }
+
+    @Override
+    public int getPendingDispatches() {
+        return WebhookDispatcher.get().getQueued();
+    }
+
+    @Override
+    public long getThrottledDispatches() {
+        return WebhookDispatcher.get().getThrottled();
+    }
+
+    @Override
+    public Map<String, Long> getResponses() {
+        Map<String, Long> counts = new TreeMap<>();
+        responses.forEach((status, count) -> counts.put(String.valueOf(status), count.sum()));
+        return counts;
+    }
+
+    @Override
+    public long getAuthFailures() {
+        return authFailures.sum();
+    }
+
+    @Override
+    public long getSignatureFailures() {
+        return signatureFailures.sum();
+    }
+
+    @Override
+    public Snapshot getBodySize() {
+        return bodySize.snapshot();
+    }
+
+    @Override
+    public Snapshot getIngestionMicros() {
+        return ingestionMicros.snapshot();
+    }
+
+    @Override
+    public Snapshot getTriggerLatencyMillis() {
+        return triggerLatencyMillis.snapshot();
+    }
+
+    /**
+     * Counts values in power of two buckets, so that recording is a few additions. Percentiles are reported as
+     * the upper bound of the bucket they fall in, at most twice the actual value.
+     */
+    static final class Histogram {
+
+        private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            long v = Math.max(value, 0);
+            // Bucket i holds the values up to 2^i - 1, bucket 0 only 0
+            buckets[Long.SIZE - Long.numberOfLeadingZeros(v)].increment();
+            count.increment();
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        Snapshot snapshot() {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            long max = this.max.get();
+            return new Snapshot(
+                    total,
+                    total == 0 ? 0 : sum.sum() / total,
+                    max,
+                    percentile(counts, total, 0.5, max),
+                    percentile(counts, total, 0.95, max),
+                    percentile(counts, total, 0.99, max));
+        }
+
+        private static long percentile(long[] counts, long total, double quantile, long max) {
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    long upper = i == 0 ? 0 : (1L << i) - 1;
+                    return Math.min(upper, max);
+                }
+            }
+            return 0;
+        }
+    }
+}
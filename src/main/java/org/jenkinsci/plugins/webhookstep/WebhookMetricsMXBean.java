@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.util.Map;
+
+/**
+ * Webhook metrics as published over JMX.
+ */
+public interface WebhookMetricsMXBean {
+
+    // Executions currently waiting on a token
+    int getActiveWaiters();
+
+    // Deliveries posted before anyone waited for them, and the heap bytes they retain
+    int getQueuedDeliveries();
+
+    long getQueuedDeliveryBytes();
+
+    // Tokens registered with an auth token
+    int getRegisteredAuthTokens();
+
+    // Deliveries claimed but not yet handed over by the dispatcher, and how often a request had to wait for room
+    int getPendingDispatches();
+
+    long getThrottledDispatches();
+
+    // Number of webhook calls answered with each HTTP status
+    Map<String, Long> getResponses();
+
+    // Calls rejected for a wrong or missing auth token, and for a wrong or missing payload signature
+    long getAuthFailures();
+
+    long getSignatureFailures();
+
+    // Size of the bodies posted, in bytes
+    Snapshot getBodySize();
+
+    // Time spent answering a webhook call, in microseconds
+    Snapshot getIngestionMicros();
+
+    // Time from the registration of a webhook to a call to it, in milliseconds
+    Snapshot getTriggerLatencyMillis();
+
+    /**
+     * Summary of a histogram. Percentiles are bucketed, see {@code WebhookMetrics.Histogram}.
+     */
+    final class Snapshot {
+
+        private final long count;
+        private final long mean;
+        private final long max;
+        private final long p50;
+        private final long p95;
+        private final long p99;
+
+        public Snapshot(long count, long mean, long max, long p50, long p95, long p99) {
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return mean;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP95() {
+            return p95;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import hudson.model.Run;
+import hudson.util.Secret;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Settings of a webhook created by {@code registerWebhook}, kept for as long as the owning run can wait on it.
+ * Instances are filled in before being handed to the registry and not modified afterwards.
+ */
+final class WebhookRegistration {
+
+    // Externalizable id of the owning run, null when the webhook was registered outside of a run
+    final String runId;
+
+    // Where bodies too large to be kept in memory are spooled
+    final File spoolDir;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Signature values like "sha256=...", base64 padding is never followed by anything but more padding
+    private static final Pattern SIGNATURE_PREFIX = Pattern.compile("[A-Za-z0-9-]+=([^=].*)");
+
+    // Salted SHA-256 of the auth token, so that checking a request needs neither decryption nor the plain text
+    private byte[] authSalt;
+    private byte[] authDigest;
+
+    // Per-webhook upper bound of the body size in bytes, 0 for the global limit only
+    private long maxPayloadSize;
+
+    // How many deliveries may wait for the pipeline, 0 for the global default
+    private int queueDepth;
+
+    // Whether a delivery completes every execution waiting on the token rather than the oldest one
+    private boolean broadcast;
+
+    // Header carrying an HMAC of the body, and the key to verify it with. The key is kept decrypted for as long as
+    // the webhook is registered so that verifying a delivery does not decrypt the Secret again.
+    private String signatureHeader;
+    private SecretKeySpec signatureKey;
+
+    // Only kept to be written encrypted to the journal
+    private Secret signatureSecret;
+
+    // When the webhook was registered, in milliseconds since the epoch
+    private long registeredAt = System.currentTimeMillis();
+
+    // Header carrying an ID the sender keeps when it retries a call, and the IDs received lately
+    private String deliveryIdHeader;
+    private final RecentDeliveries recentDeliveries = new RecentDeliveries();
+
+    WebhookRegistration(String runId, File spoolDir) {
+        this.runId = runId;
+        this.spoolDir = spoolDir;
+    }
+
+    /**
+     * Returns a registration with the same settings, sharing the auth token digest and the signature key, so that
+     * many webhooks registered at once derive them only once. Only the recent deliveries are not shared.
+     */
+    WebhookRegistration copy() {
+        WebhookRegistration copy = new WebhookRegistration(runId, spoolDir);
+        copy.authSalt = authSalt;
+        copy.authDigest = authDigest;
+        copy.maxPayloadSize = maxPayloadSize;
+        copy.queueDepth = queueDepth;
+        copy.broadcast = broadcast;
+        copy.signatureHeader = signatureHeader;
+        copy.signatureKey = signatureKey;
+        copy.signatureSecret = signatureSecret;
+        copy.registeredAt = registeredAt;
+        copy.deliveryIdHeader = deliveryIdHeader;
+        return copy;
+    }
+
+    static WebhookRegistration of(Run<?, ?> run) {
+        if (run == null) {
+            return new WebhookRegistration(null, null);
+        }
+        return new WebhookRegistration(
+                run.getExternalizableId(), new File(run.getRootDir(), PayloadReader.SPOOL_DIRECTORY));
+    }
+
+    WebhookRegistration withSecretAuthToken(Secret secretAuthToken) {
+        if (secretAuthToken == null) {
+            authSalt = null;
+            authDigest = null;
+        } else {
+            authSalt = new byte[16];
+            RANDOM.nextBytes(authSalt);
+            authDigest = digest(authSalt, secretAuthToken.getPlainText());
+        }
+        return this;
+    }
+
+    long getRegisteredAt() {
+        return registeredAt;
+    }
+
+    boolean hasAuthToken() {
+        return authDigest != null;
+    }
+
+    // Compares in constant time, so that the response time tells nothing about how much of the token matched
+    boolean checkAuthToken(String authHeader) {
+        if (authDigest == null) {
+            return true;
+        }
+        byte[] candidate = digest(authSalt, authHeader == null ? "" : authHeader);
+        return MessageDigest.isEqual(authDigest, candidate) && authHeader != null;
+    }
+
+    int getQueueDepth() {
+        return queueDepth;
+    }
+
+    WebhookRegistration withQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+        return this;
+    }
+
+    boolean isBroadcast() {
+        return broadcast;
+    }
+
+    WebhookRegistration withBroadcast(boolean broadcast) {
+        this.broadcast = broadcast;
+        return this;
+    }
+
+    WebhookRegistration withSignature(String header, String algorithm, Secret secret) {
+        signatureHeader = header;
+        signatureSecret = secret;
+        signatureKey = new SecretKeySpec(secret.getPlainText().getBytes(StandardCharsets.UTF_8), algorithm);
+        // Fail at registration rather than on the first delivery when the algorithm is not supported
+        newMac();
+        return this;
+    }
+
+    String getSignatureHeader() {
+        return signatureHeader;
+    }
+
+    boolean hasSignature() {
+        return signatureKey != null;
+    }
+
+    // A fresh Mac to feed the body to while it is read
+    Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(signatureKey.getAlgorithm());
+            mac.init(signatureKey);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalArgumentException("Unsupported signature algorithm " + signatureKey.getAlgorithm(), e);
+        }
+    }
+
+    /**
+     * Checks the signature header against the HMAC computed over the body. The header may hold the signature in hex
+     * or base64, optionally prefixed like GitHub's {@code sha256=}.
+     */
+    static boolean checkSignature(byte[] expected, String signatureHeader) {
+        if (signatureHeader == null) {
+            return false;
+        }
+        String value = signatureHeader.trim();
+        Matcher prefixed = SIGNATURE_PREFIX.matcher(value);
+        if (prefixed.matches()) {
+            value = prefixed.group(1);
+        }
+        byte[] candidate;
+        try {
+            candidate = value.length() == 2 * expected.length && value.matches("[0-9a-fA-F]+")
+                    ? HexFormat.of().parseHex(value)
+                    : Base64.getDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return MessageDigest.isEqual(expected, candidate);
+    }
+
+    private static byte[] digest(byte[] salt, String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            return digest.digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    long getMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+
+    String getDeliveryIdHeader() {
+        return deliveryIdHeader;
+    }
+
+    WebhookRegistration withDeliveryIdHeader(String deliveryIdHeader) {
+        this.deliveryIdHeader = deliveryIdHeader;
+        return this;
+    }
+
+    RecentDeliveries getRecentDeliveries() {
+        return recentDeliveries;
+    }
+
+    WebhookRegistration withMaxPayloadSize(long maxPayloadSize) {
+        this.maxPayloadSize = maxPayloadSize;
+        return this;
+    }
+
+    // Writes the settings to the journal, the auth token as its digest and the signature secret encrypted
+    void writeTo(DataOutputStream out) throws IOException {
+        WebhookJournal.writeString(out, runId);
+        WebhookJournal.writeString(out, spoolDir == null ? null : spoolDir.getPath());
+        WebhookJournal.writeBytes(out, authSalt);
+        WebhookJournal.writeBytes(out, authDigest);
+        out.writeLong(maxPayloadSize);
+        out.writeInt(queueDepth);
+        out.writeBoolean(broadcast);
+        WebhookJournal.writeString(out, signatureHeader);
+        WebhookJournal.writeString(out, signatureKey == null ? null : signatureKey.getAlgorithm());
+        WebhookJournal.writeString(out, signatureSecret == null ? null : signatureSecret.getEncryptedValue());
+        out.writeLong(registeredAt);
+        WebhookJournal.writeString(out, deliveryIdHeader);
+    }
+
+    static WebhookRegistration readFrom(DataInputStream in) throws IOException {
+        String runId = WebhookJournal.readString(in);
+        String spoolDir = WebhookJournal.readString(in);
+        WebhookRegistration registration = new WebhookRegistration(runId, spoolDir == null ? null : new File(spoolDir));
+        registration.authSalt = WebhookJournal.readBytes(in);
+        registration.authDigest = WebhookJournal.readBytes(in);
+        registration.maxPayloadSize = in.readLong();
+        registration.queueDepth = in.readInt();
+        registration.broadcast = in.readBoolean();
+        String signatureHeader = WebhookJournal.readString(in);
+        String signatureAlgorithm = WebhookJournal.readString(in);
+        String signatureSecret = WebhookJournal.readString(in);
+        if (signatureSecret != null) {
+            registration.withSignature(signatureHeader, signatureAlgorithm, Secret.fromString(signatureSecret));
+        }
+        registration.registeredAt = in.readLong();
+        registration.deliveryIdHeader = WebhookJournal.readString(in);
+        return registration;
+    }
+}
@@ -0,0 +1,451 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Holds the webhooks known to the controller: executions waiting on a token, deliveries that arrived before
+ * anyone waited, and the settings registered for each webhook.
+ *
+ * <p>Handing a delivery over to a waiter always goes through {@link ConcurrentHashMap#compute} on the waiter
+ * map, so a POST and a {@code waitForWebhook} arriving at the same moment for the same token are serialized
+ * without a global lock. Operations on different tokens do not contend. A waiter registered under several tokens
+ * decides itself, in {@link WebhookWaiter#offer}, which delivery completes it.
+ *
+ * <p>The waiters of a token are kept in an immutable list in the order they started waiting. A delivery goes to
+ * the oldest waiter, or to all of them when the token is a broadcast one. Waiters with a {@link DeliveryFilter}
+ * are skipped by the deliveries they do not accept, and a delivery no waiter accepts is dropped. Filters are
+ * checked before the token is locked, since they may parse the body. Only the hand-over happens under the lock, which
+ * is retried when the waiters or deliveries changed since they were checked.
+ *
+ * <p>Every registration and waiter remembers the run that created it, so that everything a run left behind can
+ * be released at once when the run finishes or is deleted.
+ */
+final class WebhookRegistry {
+
+    private final ConcurrentHashMap<String, List<WebhookWaiter>> waiters = new ConcurrentHashMap<>();
+    private final EarlyDeliveryStore alreadyPosted;
+    private final ConcurrentHashMap<String, WebhookRegistration> registrations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> tokensByRun = new ConcurrentHashMap<>();
+
+    // Records registrations and early deliveries so that they survive a restart, null when not persisted
+    private volatile WebhookJournal journal;
+
+    WebhookRegistry() {
+        this(new EarlyDeliveryStore(
+                TimeUnit.MINUTES.toMillis(WebhookStepConfiguration.DEFAULT_EARLY_DELIVERY_TTL_MINUTES),
+                WebhookStepConfiguration.DEFAULT_EARLY_DELIVERY_MAX_SIZE_MB * 1024 * 1024,
+                WebhookStepConfiguration.DEFAULT_QUEUE_DEPTH));
+    }
+
+    WebhookRegistry(EarlyDeliveryStore alreadyPosted) {
+        this.alreadyPosted = alreadyPosted;
+    }
+
+    EarlyDeliveryStore getAlreadyPosted() {
+        return alreadyPosted;
+    }
+
+    void setJournal(WebhookJournal journal) {
+        this.journal = journal;
+        alreadyPosted.setListener(journal);
+    }
+
+    void register(String token, WebhookRegistration registration) {
+        registrations.compute(token, (key, previous) -> {
+            // Recorded while the token is locked, so that the journal sees registrations in the same order
+            WebhookJournal journal = this.journal;
+            if (journal != null) {
+                journal.registered(key, registration);
+            }
+            return registration;
+        });
+        track(registration.runId, token);
+    }
+
+    // Registers webhooks created together, tracking them under their runs at once
+    void registerAll(Map<String, WebhookRegistration> registrations) {
+        WebhookJournal journal = this.journal;
+        Map<String, List<String>> byRun = new HashMap<>();
+        registrations.forEach((token, registration) -> {
+            this.registrations.compute(token, (key, previous) -> {
+                if (journal != null) {
+                    journal.registered(key, registration);
+                }
+                return registration;
+            });
+            if (registration.runId != null) {
+                byRun.computeIfAbsent(registration.runId, key -> new ArrayList<>()).add(token);
+            }
+        });
+        byRun.forEach((runId, tokens) -> tokensByRun
+                .computeIfAbsent(runId, key -> ConcurrentHashMap.newKeySet())
+                .addAll(tokens));
+    }
+
+    // Forgets everything, before the state saved in the journal is replayed
+    void clear() {
+        waiters.clear();
+        registrations.clear();
+        tokensByRun.clear();
+        alreadyPosted.clear();
+    }
+
+    WebhookRegistration getRegistration(String token) {
+        return registrations.get(token);
+    }
+
+    // Whether a run registered or waits on the token
+    boolean isKnown(String token) {
+        return registrations.containsKey(token) || waiters.containsKey(token);
+    }
+
+    /**
+     * Every token a run registered, waits on or has early deliveries stored for, each once. The maps are read
+     * without locking them, so tokens added or removed meanwhile may be missed, and only the store of early
+     * deliveries is copied.
+     */
+    Stream<String> tokens() {
+        Stream<String> waiting = waiters.keySet().stream().filter(token -> !registrations.containsKey(token));
+        // Only copied once a page reaches them
+        Stream<String> queued = Stream.of(alreadyPosted)
+                .flatMap(store -> store.tokens().stream())
+                .filter(token -> !registrations.containsKey(token) && !waiters.containsKey(token));
+        return Stream.of(registrations.keySet().stream(), waiting, queued).flatMap(tokens -> tokens);
+    }
+
+    // The executions currently waiting on the token, oldest first
+    List<WebhookWaiter> getWaiters(String token) {
+        return waiters.getOrDefault(token, List.of());
+    }
+
+    // Number of executions waiting, an execution waiting on several tokens counts once per token
+    int countWaiters() {
+        int count = 0;
+        for (List<WebhookWaiter> waiting : waiters.values()) {
+            count += waiting.size();
+        }
+        return count;
+    }
+
+    int countAuthTokens() {
+        int count = 0;
+        for (WebhookRegistration registration : registrations.values()) {
+            if (registration.hasAuthToken()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the directory large bodies posted to the token are spooled to, or null when no single run owns
+     * the token.
+     */
+    File getSpoolDir(String token) {
+        WebhookRegistration registration = registrations.get(token);
+        List<WebhookWaiter> current = waiters.getOrDefault(token, List.of());
+        if (isBroadcast(registration, current)) {
+            // Shared by runs that may end in any order
+            return null;
+        }
+        if (registration != null && registration.spoolDir != null) {
+            return registration.spoolDir;
+        }
+        return current.isEmpty() ? null : current.get(0).getSpoolDir();
+    }
+
+    /**
+     * Hands a delivery to the oldest waiter on the token, or to all of them for a broadcast token, or queues it
+     * for a later wait.
+     */
+    Claim claimOrPark(String token, WebhookResponse response) {
+        return claimOrPark(token, response, response.getRequestHeaders()::select);
+    }
+
+    /**
+     * @param headers reads the given headers of the request, or all of them when given null. Only the headers a
+     *     receiving waiter may return are read, all of them when the delivery is kept for a later wait.
+     */
+    Claim claimOrPark(String token, WebhookResponse response, Function<Collection<String>, WebhookHeaders> headers) {
+        WebhookRegistration registration = registrations.get(token);
+        int queueDepth = registration == null ? 0 : registration.getQueueDepth();
+        List<WebhookWaiter> completed = new ArrayList<>();
+        List<WebhookWaiter> accepted = new ArrayList<>();
+        EarlyDeliveryStore.Result[] queued = new EarlyDeliveryStore.Result[1];
+        boolean[] filtered = new boolean[1];
+        boolean[] unchecked = new boolean[1];
+        DeliveryFilter.Delivery delivery = new DeliveryFilter.Delivery(response, headers);
+        Map<WebhookWaiter, Boolean> matches = new IdentityHashMap<>();
+        do {
+            // A filter may parse the body, so it is checked before the token is locked
+            for (WebhookWaiter waiter : waiters.getOrDefault(token, List.of())) {
+                if (!matches.containsKey(waiter)) {
+                    DeliveryFilter filter = waiter.getFilter();
+                    matches.put(waiter, filter == null || filter.matches(delivery));
+                }
+            }
+            unchecked[0] = false;
+            waiters.compute(token, (key, current) -> {
+                List<WebhookWaiter> waiting = current == null ? List.of() : current;
+                for (WebhookWaiter waiter : waiting) {
+                    if (!matches.containsKey(waiter)) {
+                        // Started waiting since the filters were checked, they are checked again
+                        unchecked[0] = true;
+                        return current;
+                    }
+                }
+                boolean broadcast = isBroadcast(registration, waiting);
+                List<WebhookWaiter> remaining = new ArrayList<>(waiting.size());
+                for (WebhookWaiter waiter : waiting) {
+                    if (!broadcast && !(completed.isEmpty() && accepted.isEmpty())) {
+                        remaining.add(waiter);
+                        continue;
+                    }
+                    if (!matches.get(waiter)) {
+                        filtered[0] = true;
+                        remaining.add(waiter);
+                        continue;
+                    }
+                    switch (waiter.offer(key, response.withHeaders(headers.apply(waiter.getHeaderNames())))) {
+                        case COMPLETE -> completed.add(waiter);
+                        case ACCEPTED -> {
+                            // A batch keeps waiting until it has all it wants
+                            accepted.add(waiter);
+                            remaining.add(waiter);
+                        }
+                        // Completed through another token and about to be removed, the delivery goes to the next one
+                        case REJECTED -> {}
+                    }
+                }
+                // Kept for a later wait only when nobody waits, waiters filtering it out do not want it
+                if (completed.isEmpty() && accepted.isEmpty() && !filtered[0]) {
+                    queued[0] = alreadyPosted.put(key, response.withHeaders(headers.apply(null)), queueDepth);
+                }
+                return remaining.isEmpty() ? null : List.copyOf(remaining);
+            });
+        } while (unchecked[0]);
+        if (queued[0] != null) {
+            // Outside of the token, evicting may delete spool files
+            alreadyPosted.evict();
+        }
+        for (WebhookWaiter waiter : completed) {
+            removeWaiter(waiter);
+        }
+        return new Claim(completed, accepted, queued[0], filtered[0] && completed.isEmpty() && accepted.isEmpty());
+    }
+
+    /**
+     * Hands the deliveries already posted for the waiter's tokens over to it, and registers the waiter under its
+     * tokens unless that was all it wanted. Deliveries the waiter filters out are dropped. A waiter completed through
+     * another token meanwhile takes nothing more and is not registered, the delivery completing it hands it over.
+     *
+     * @return whether the waiter has all it waits for and should be completed
+     */
+    boolean takeOrWait(WebhookWaiter waiter) {
+        boolean[] done = new boolean[1];
+        boolean[] rejected = new boolean[1];
+        DeliveryFilter filter = waiter.getFilter();
+        for (String token : waiter.getTokens()) {
+            boolean[] unchecked = new boolean[1];
+            do {
+                // A filter may parse the body, so the next delivery is checked before the token is locked
+                WebhookResponse[] checked = {filter == null ? null : matchingHead(token, filter)};
+                unchecked[0] = false;
+                waiters.compute(token, (key, current) -> {
+                    Predicate<WebhookResponse> receiver = head -> {
+                        if (filter != null && head != checked[0]) {
+                            // Posted or expired since, or the next delivery of a batch
+                            unchecked[0] = true;
+                            return false;
+                        }
+                        WebhookHeaders wanted = head.getRequestHeaders().select(waiter.getHeaderNames());
+                        WebhookWaiter.Offer offer = waiter.offer(key, head.withHeaders(wanted));
+                        // Completed through another token meanwhile, the delivery stays for someone else
+                        rejected[0] = offer == WebhookWaiter.Offer.REJECTED;
+                        done[0] = offer == WebhookWaiter.Offer.COMPLETE;
+                        return !rejected[0];
+                    };
+                    // A delivery only leaves the store once the waiter took it
+                    while (!done[0] && !rejected[0] && alreadyPosted.takeIf(key, receiver) != null) {
+                        checked[0] = null;
+                    }
+                    if (done[0] || rejected[0] || unchecked[0] || (current != null && current.contains(waiter))) {
+                        return current;
+                    }
+                    List<WebhookWaiter> waiting = new ArrayList<>(current == null ? List.of() : current);
+                    waiting.add(waiter);
+                    return List.copyOf(waiting);
+                });
+                // Discards the deliveries that expired while they were looked at
+                alreadyPosted.evict();
+            } while (unchecked[0] && !done[0] && !rejected[0]);
+            if (done[0] || rejected[0]) {
+                // Tokens visited before are no longer needed
+                removeWaiter(waiter);
+                return done[0];
+            }
+            track(waiter.getRunId(), token);
+        }
+        return false;
+    }
+
+    // Drops the deliveries the filter rejects from the head of the token's queue, returns the first it accepts
+    private WebhookResponse matchingHead(String token, DeliveryFilter filter) {
+        WebhookResponse head;
+        while ((head = alreadyPosted.peek(token)) != null && !filter.matches(head)) {
+            if (alreadyPosted.remove(token, head)) {
+                head.discard();
+            }
+        }
+        return head;
+    }
+
+    /**
+     * Removes the waiter from all of its tokens.
+     *
+     * @return whether the waiter was still registered, in which case nothing can hand it a delivery anymore
+     */
+    boolean removeWaiter(WebhookWaiter waiter) {
+        boolean[] removed = new boolean[1];
+        for (String token : waiter.getTokens()) {
+            waiters.computeIfPresent(token, (key, current) -> {
+                if (!current.contains(waiter)) {
+                    return current;
+                }
+                removed[0] = true;
+                List<WebhookWaiter> remaining = new ArrayList<>(current);
+                remaining.remove(waiter);
+                return remaining.isEmpty() ? null : List.copyOf(remaining);
+            });
+        }
+        return removed[0];
+    }
+
+    void remove(WebhookWaiter waiter) {
+        removeWaiter(waiter);
+        for (String token : waiter.getTokens()) {
+            registrations.computeIfPresent(token, (key, registration) -> {
+                // Other pipelines may still wait on a broadcast token
+                if (registration.isBroadcast() && waiters.containsKey(key)) {
+                    return registration;
+                }
+                unregistered(key, registration);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Releases the waiters, registrations and early deliveries owned by a run. Tokens that were registered
+     * again by another run since are left alone.
+     */
+    void releaseRun(String runId) {
+        Set<String> tokens = tokensByRun.remove(runId);
+        if (tokens == null) {
+            return;
+        }
+        List<String> released = new ArrayList<>();
+        for (String token : tokens) {
+            waiters.computeIfPresent(token, (key, current) -> {
+                List<WebhookWaiter> remaining = new ArrayList<>(current.size());
+                for (WebhookWaiter waiter : current) {
+                    if (!runId.equals(waiter.getRunId())) {
+                        remaining.add(waiter);
+                    }
+                }
+                return remaining.isEmpty() ? null : List.copyOf(remaining);
+            });
+            registrations.computeIfPresent(token, (key, registration) -> {
+                if (!runId.equals(registration.runId)) {
+                    return registration;
+                }
+                unregistered(key, registration);
+                released.add(key);
+                return null;
+            });
+        }
+        alreadyPosted.removeAll(released);
+    }
+
+    /**
+     * Releases every run that no longer exists, see {@link #releaseRun(String)}. Returns the runs released.
+     */
+    List<String> releaseMissingRuns(Predicate<String> exists) {
+        List<String> missing = new ArrayList<>();
+        for (String runId : tokensByRun.keySet()) {
+            if (!exists.test(runId)) {
+                releaseRun(runId);
+                missing.add(runId);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Outcome of a delivery: the waiters it was handed to, or what happened when it was queued.
+     */
+    static final class Claim {
+        // Waiters that have all they wait for and have to be completed
+        final List<WebhookWaiter> completed;
+        // Waiters that took the delivery and keep collecting
+        final List<WebhookWaiter> accepted;
+        // Null when the delivery was handed to a waiter or filtered out
+        final EarlyDeliveryStore.Result queued;
+        // Whether the delivery was dropped because no waiter accepts it
+        final boolean filtered;
+
+        Claim(
+                List<WebhookWaiter> completed,
+                List<WebhookWaiter> accepted,
+                EarlyDeliveryStore.Result queued,
+                boolean filtered) {
+            this.completed = completed;
+            this.accepted = accepted;
+            this.queued = queued;
+            this.filtered = filtered;
+        }
+
+        boolean isClaimed() {
+            return queued == null && !filtered;
+        }
+    }
+
+    private static boolean isBroadcast(WebhookRegistration registration, List<WebhookWaiter> waiting) {
+        if (registration != null && registration.isBroadcast()) {
+            return true;
+        }
+        for (WebhookWaiter waiter : waiting) {
+            if (waiter.isBroadcast()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void unregistered(String token, WebhookRegistration registration) {
+        WebhookJournal journal = this.journal;
+        if (journal != null) {
+            journal.unregistered(token, registration);
+        }
+    }
+
+    private void track(String runId, String token) {
+        if (runId != null) {
+            tokensByRun
+                    .computeIfAbsent(runId, key -> ConcurrentHashMap.newKeySet())
+                    .add(token);
+        }
+    }
+}
@@ -1,8 +1,22 @@
 package org.jenkinsci.plugins.webhookstep;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serial;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
 
 public class WebhookResponse implements Serializable {
@@ -10,21 +24,266 @@ public class WebhookResponse implements Serializable {
     @Serial
     private static final long serialVersionUID = 1;
 
+    // Only set by the public constructor, and by responses serialized before bodies were kept as bytes
     private final String content;
+
+    // Only set by responses serialized before headers were kept as WebhookHeaders
     private final Map<String, String> headers;
 
+    private final WebhookHeaders requestHeaders;
+
+    // The raw body as posted, and the charset to decode it with when text is requested
+    private final byte[] body;
+    private final String charset;
+
+    // Set instead of body when the body was too large to be kept in memory
+    private final File spoolFile;
+
+    // The token the delivery was posted to, only set for steps waiting on several tokens
+    private final String token;
+
+    // The values selected from a JSON body, set instead of the body by waitForWebhook with format: 'json'
+    private final Object json;
+
     public WebhookResponse(String content, Map<String, String> headers) {
+        this(content, WebhookHeaders.of(headers), null, null, null, null, null);
+    }
+
+    WebhookResponse(byte[] body, String charset) {
+        this(null, WebhookHeaders.EMPTY, body, charset, null, null, null);
+    }
+
+    WebhookResponse(File spoolFile, String charset) {
+        this(null, WebhookHeaders.EMPTY, null, charset, spoolFile, null, null);
+    }
+
+    private WebhookResponse(
+            String content,
+            WebhookHeaders requestHeaders,
+            byte[] body,
+            String charset,
+            File spoolFile,
+            String token,
+            Object json) {
         this.content = content;
-        this.headers = headers;
+        this.headers = null;
+        this.requestHeaders = requestHeaders;
+        this.body = body;
+        this.charset = charset;
+        this.spoolFile = spoolFile;
+        this.token = token;
+        this.json = json;
+    }
+
+    // Returns the same delivery, recording which of the awaited tokens it was posted to
+    WebhookResponse withToken(String token) {
+        return new WebhookResponse(content, getRequestHeaders(), body, charset, spoolFile, token, json);
+    }
+
+    // Returns the same delivery with other headers, the body is shared
+    WebhookResponse withHeaders(WebhookHeaders requestHeaders) {
+        return new WebhookResponse(content, requestHeaders, body, charset, spoolFile, token, json);
+    }
+
+    /**
+     * Returns the same delivery with its spool file copied to the given directory, unless it already lies there.
+     * Files in the shared spool directory are deleted by EarlyDeliverySweeper after the retention time, while a
+     * response returned to a pipeline may be read for as long as the run is kept. The original is left to the
+     * sweeper, since other runs may have been handed the same file.
+     */
+    WebhookResponse withSpoolDir(File spoolDir) {
+        if (spoolFile == null || spoolDir == null || spoolFile.toPath().startsWith(spoolDir.toPath())) {
+            return this;
+        }
+        try {
+            File copy = PayloadReader.newSpoolFile(spoolDir);
+            Files.copy(spoolFile.toPath(), copy.toPath());
+            return new WebhookResponse(content, getRequestHeaders(), body, charset, copy, token, json);
+        } catch (IOException e) {
+            Logger.getLogger(WebhookResponse.class.getName())
+                    .log(Level.WARNING, "Failed to copy webhook spool file " + spoolFile + " to " + spoolDir, e);
+            return this;
+        }
+    }
+
+    // Returns the same delivery with the values selected from its body, the body itself is dropped
+    WebhookResponse withJson(Object json) {
+        return new WebhookResponse(null, getRequestHeaders(), null, charset, null, token, json);
     }
 
     @Whitelisted
     public String getContent() {
-        return content;
+        if (content != null) {
+            return content;
+        }
+        return new String(readBody(), getCharset());
+    }
+
+    /**
+     * Returns the body as posted, without any decoding.
+     */
+    @Whitelisted
+    public byte[] getBytes() {
+        if (content != null) {
+            return content.getBytes(StandardCharsets.UTF_8);
+        }
+        return body != null ? body.clone() : readBody();
     }
 
+    @Whitelisted
+    public String getBase64() {
+        if (content != null) {
+            return Base64.getEncoder().encodeToString(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return Base64.getEncoder().encodeToString(body != null ? body : readBody());
+    }
+
+    /**
+     * Returns the first value of each header, looked up case-insensitively.
+     */
     @Whitelisted
     public Map<String, String> getHeaders() {
-        return headers;
+        return requestHeaders != null ? requestHeaders.toMap() : headers;
+    }
+
+    /**
+     * Returns every value sent for the header, in the order they were received.
+     */
+    @Whitelisted
+    public List<String> getHeaderValues(String name) {
+        return getRequestHeaders().getAll(name);
+    }
+
+    WebhookHeaders getRequestHeaders() {
+        return requestHeaders != null ? requestHeaders : WebhookHeaders.of(headers);
+    }
+
+    /**
+     * Returns the token the delivery was posted to when it was returned by {@code waitForAnyWebhook}, null
+     * otherwise.
+     */
+    @Whitelisted
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Returns the values selected from the body when it was parsed by {@code waitForWebhook} with
+     * {@code format: 'json'}, null otherwise.
+     */
+    @Whitelisted
+    public Object getJson() {
+        return json;
+    }
+
+    // Streams the body without holding a spooled body in memory
+    InputStream openBody() throws IOException {
+        if (spoolFile != null) {
+            return Files.newInputStream(spoolFile.toPath());
+        }
+        return new ByteArrayInputStream(content != null ? content.getBytes(StandardCharsets.UTF_8) : readBody());
+    }
+
+    private byte[] readBody() {
+        if (spoolFile == null) {
+            // Only responses carrying parsed JSON have neither
+            return body != null ? body : new byte[0];
+        }
+        try {
+            // Not cached, so that a large body is only held in memory while the caller uses it
+            return Files.readAllBytes(spoolFile.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read webhook content from " + spoolFile, e);
+        }
+    }
+
+    Charset getCharset() {
+        if (charset != null) {
+            try {
+                return Charset.forName(charset);
+            } catch (IllegalArgumentException e) {
+                Logger.getLogger(WebhookResponse.class.getName())
+                        .fine("Unsupported webhook charset " + charset + ", decoding as UTF-8");
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    // Deletes the spool file of a delivery that will never be handed to a pipeline
+    void discard() {
+        if (spoolFile != null) {
+            try {
+                Files.deleteIfExists(spoolFile.toPath());
+            } catch (IOException e) {
+                Logger.getLogger(WebhookResponse.class.getName())
+                        .log(Level.WARNING, "Failed to delete webhook spool file " + spoolFile, e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the spool file once the pipeline no longer needs the body. Files outside of the given directory are
+     * left alone: they were spooled for runs that may still read them, and EarlyDeliverySweeper removes them.
+     */
+    void release(File spoolDir) {
+        if (spoolFile != null && spoolDir != null && spoolFile.toPath().startsWith(spoolDir.toPath())) {
+            discard();
+        }
+    }
+
+    // Number of bytes posted
+    long length() {
+        if (content != null) {
+            return content.getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (spoolFile != null) {
+            return spoolFile.length();
+        }
+        return body != null ? body.length : 0;
+    }
+
+    // Rough number of bytes retained by this response in memory or in its spool file, used to budget stored deliveries
+    long estimateSize() {
+        long size = 64;
+        if (spoolFile != null) {
+            size += spoolFile.length();
+        }
+        if (content != null) {
+            size += 2L * content.length();
+        }
+        if (body != null) {
+            size += body.length;
+        }
+        return size + getRequestHeaders().estimateSize();
+    }
+
+    // Writes the delivery to the journal, a spooled body by the path of its spool file
+    void writeTo(DataOutputStream out) throws IOException {
+        WebhookJournal.writeString(out, content);
+        WebhookHeaders requestHeaders = getRequestHeaders();
+        out.writeInt(requestHeaders.size());
+        for (int i = 0; i < requestHeaders.size(); i++) {
+            WebhookJournal.writeString(out, requestHeaders.getName(i));
+            WebhookJournal.writeString(out, requestHeaders.getValue(i));
+        }
+        WebhookJournal.writeBytes(out, body);
+        WebhookJournal.writeString(out, charset);
+        WebhookJournal.writeString(out, spoolFile == null ? null : spoolFile.getPath());
+        WebhookJournal.writeString(out, token);
+    }
+
+    static WebhookResponse readFrom(DataInputStream in) throws IOException {
+        String content = WebhookJournal.readString(in);
+        int headerCount = in.readInt();
+        String[] entries = new String[2 * headerCount];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = WebhookJournal.readString(in);
+        }
+        byte[] body = WebhookJournal.readBytes(in);
+        String charset = WebhookJournal.readString(in);
+        String spoolPath = WebhookJournal.readString(in);
+        String token = WebhookJournal.readString(in);
+        File spoolFile = spoolPath == null ? null : new File(spoolPath);
+        return new WebhookResponse(content, WebhookHeaders.of(entries), body, charset, spoolFile, token, null);
     }
 }
@@ -1,30 +1,137 @@
 package org.jenkinsci.plugins.webhookstep;
 
 import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Run;
 import hudson.model.UnprotectedRootAction;
 import hudson.security.csrf.CrumbExclusion;
-import hudson.util.Secret;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.nio.CharBuffer;
-import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.crypto.Mac;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
+import org.kohsuke.stapler.verb.GET;
 import org.kohsuke.stapler.verb.POST;
 
 @Extension
 public class WebhookRootAction extends CrumbExclusion implements UnprotectedRootAction {
 
-    private static final HashMap<String, WaitForWebhookExecution> webhooks = new HashMap<>();
-    private static final HashMap<String, WebhookResponse> alreadyPosted = new HashMap<>();
-    private static final HashMap<String, Secret> authTokens = new HashMap<>();
+    private static final WebhookRegistry registry = new WebhookRegistry();
+
+    private static WebhookJournal journal;
+
+    // Sent with 429 responses, senders usually back off longer on later attempts
+    private static final int RETRY_AFTER_SECONDS = 10;
+
+    // Webhooks listed by a status page unless asked otherwise, and at most
+    static final int DEFAULT_STATUS_LIMIT = 100;
+    static final int MAX_STATUS_LIMIT = 100000;
+
+    // Bodies with more bytes than this are spooled to disk instead of being kept in memory
+    private static volatile long spoolThreshold = WebhookStepConfiguration.DEFAULT_SPOOL_THRESHOLD_KB * 1024;
+
+    // Bodies with more bytes than this are rejected, webhooks can only lower the limit
+    private static volatile long maxPayloadSize = WebhookStepConfiguration.DEFAULT_MAX_PAYLOAD_SIZE_KB * 1024;
+
+    // Whether calls to tokens no run registered or waits on are rejected before reading their body
+    private static volatile boolean rejectUnknownTokens;
+
+    // Whether the response to a call waits until the pipelines it completes have resumed
+    private static volatile boolean synchronousDispatch;
+
+    // Calls allowed per minute to a single token, and from a single client address
+    private static final RateLimiter tokenLimits = new RateLimiter();
+    private static final RateLimiter clientLimits = new RateLimiter();
+
+    static WebhookRegistry getRegistry() {
+        return registry;
+    }
+
+    static void setSpoolThreshold(long spoolThreshold) {
+        WebhookRootAction.spoolThreshold = spoolThreshold;
+    }
+
+    static void setMaxPayloadSize(long maxPayloadSize) {
+        WebhookRootAction.maxPayloadSize = maxPayloadSize;
+    }
+
+    static void setRejectUnknownTokens(boolean rejectUnknownTokens) {
+        WebhookRootAction.rejectUnknownTokens = rejectUnknownTokens;
+    }
+
+    static void setSynchronousDispatch(boolean synchronousDispatch) {
+        WebhookRootAction.synchronousDispatch = synchronousDispatch;
+    }
+
+    static void setRateLimits(int perToken, int perClient) {
+        tokenLimits.configure(perToken);
+        clientLimits.configure(perClient);
+    }
+
+    // Spool directory for tokens no run owns, cleaned up by EarlyDeliverySweeper
+    static File getSharedSpoolDir() {
+        return new File(new File(Jenkins.get().getRootDir(), PayloadReader.SPOOL_DIRECTORY), "spool");
+    }
+
+    /**
+     * Restores the webhooks saved before the last shutdown, before pipelines resume and wait on them again.
+     */
+    @Initializer(after = InitMilestone.PLUGINS_STARTED, before = InitMilestone.JOB_LOADED)
+    public static synchronized void openJournal() {
+        registry.clear();
+        File dir = new File(Jenkins.get().getRootDir(), PayloadReader.SPOOL_DIRECTORY);
+        File file = new File(dir, WebhookJournal.FILE_NAME);
+        try {
+            journal = WebhookJournal.open(registry, file);
+        } catch (IOException e) {
+            Logger.getLogger(WebhookRootAction.class.getName())
+                    .log(Level.WARNING, "Webhooks will not survive restarts, failed to open journal " + file, e);
+        }
+    }
+
+    /**
+     * Releases the webhooks restored for runs that were deleted while the controller was down, which would never
+     * resume and release them. Jobs are only loaded after the journal was replayed.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED, before = InitMilestone.COMPLETED)
+    public static void releaseMissingRuns() {
+        List<String> missing = registry.releaseMissingRuns(runId -> Run.fromExternalizableId(runId) != null);
+        if (!missing.isEmpty()) {
+            Logger.getLogger(WebhookRootAction.class.getName())
+                    .info("Released the webhooks of " + missing.size() + " runs that no longer exist: " + missing);
+        }
+    }
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void registerMetrics() {
+        WebhookMetrics.get().register();
+    }
+
+    @Terminator
+    public static void unregisterMetrics() {
+        WebhookMetrics.get().unregister();
+    }
+
+    @Terminator
+    public static synchronized void closeJournal() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
 
     @Override
     public String getDisplayName() {
@@ -41,19 +148,52 @@ public class WebhookRootAction extends CrumbExclusion implements UnprotectedRoot
         return "webhook-step";
     }
 
+    /**
+     * Lists the known webhooks as streamed JSON, see {@link WebhookStatus}. Only available to administrators, calls
+     * to tokens still go to {@link #doDynamic} as they are POSTed.
+     */
+    @GET
+    public void doStatus(@QueryParameter int offset, @QueryParameter int limit, StaplerResponse2 response)
+            throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        int pageSize = limit <= 0 ? DEFAULT_STATUS_LIMIT : Math.min(limit, MAX_STATUS_LIMIT);
+        response.setContentType("application/json;charset=UTF-8");
+        WebhookStatus.write(
+                registry, response.getOutputStream(), Math.max(offset, 0), pageSize, System.currentTimeMillis());
+    }
+
     @POST
     public void doDynamic(StaplerRequest2 request, StaplerResponse2 response) {
+        long start = System.nanoTime();
+        int status = 500;
+        try {
+            receive(request, response);
+            status = response.getStatus();
+        } finally {
+            // Stapler only sets the 500 once the failure has left this method
+            WebhookMetrics.get().recordResponse(status, System.nanoTime() - start);
+        }
+    }
+
+    private void receive(StaplerRequest2 request, StaplerResponse2 response) {
         String token = request.getOriginalRestOfPath().substring(1); // Strip leading slash
+        if (isRateLimited(response, clientLimits.acquire(request.getRemoteAddr()))) {
+            return;
+        }
+
         String authHeader = request.getHeader("Authorization");
-        Secret secretAuthToken;
+        WebhookRegistration registration = registry.getRegistration(token);
 
-        synchronized (authTokens) {
-            secretAuthToken = authTokens.get(token);
+        if (registration == null && rejectUnknownTokens && !registry.isKnown(token)) {
+            response.setHeader("Result", "UnknownWebhook");
+            response.setStatus(404);
+            return;
         }
 
-        if (secretAuthToken != null) {
-            // Decrypt the stored AuthToken with the one received in the header
-            if (!secretAuthToken.getPlainText().equals(authHeader)) {
+        if (registration != null && registration.hasAuthToken()) {
+            // Compare the received header with the digest computed when the webhook was registered
+            if (!registration.checkAuthToken(authHeader)) {
+                WebhookMetrics.get().recordAuthFailure();
                 response.setHeader("Result", "Unauthorized");
                 response.setStatus(403);
                 return;
@@ -63,80 +203,218 @@ public class WebhookRootAction extends CrumbExclusion implements UnprotectedRoot
                     .warning("Unexpected Authorization header for Webhook " + token);
         }
 
-        CharBuffer dest = CharBuffer.allocate(1024);
-        StringBuilder content = new StringBuilder();
-        try {
-            BufferedReader reader = request.getReader();
-            int len;
-
-            while ((len = reader.read(dest)) > 0) {
-                dest.rewind();
-                dest.limit(len);
-                content.append(dest);
-                dest.limit(dest.capacity());
+        // Only registered webhooks have a bucket, so that calls to made-up tokens cannot fill the map. Charged once
+        // the auth token matched, so that forged calls cannot use up the bucket of the real sender.
+        if (registration != null && isRateLimited(response, tokenLimits.acquire(token))) {
+            return;
+        }
+
+        // A retry of a call answered already gets the same answer, without its body being read
+        String deliveryId = registration == null || registration.getDeliveryIdHeader() == null
+                ? null
+                : request.getHeader(registration.getDeliveryIdHeader());
+        if (deliveryId != null && replay(response, registration.getRecentDeliveries().get(deliveryId))) {
+            return;
+        }
+
+        long maxSize = maxPayloadSize;
+        if (registration != null && registration.getMaxPayloadSize() > 0) {
+            maxSize = Math.min(maxSize, registration.getMaxPayloadSize());
+        }
+        if (request.getContentLengthLong() > maxSize) {
+            response.setHeader("Result", "PayloadTooLarge");
+            response.setStatus(413);
+            return;
+        }
+
+        String signatureHeader = null;
+        if (registration != null && registration.hasSignature()) {
+            signatureHeader = request.getHeader(registration.getSignatureHeader());
+            if (signatureHeader == null) {
+                WebhookMetrics.get().recordSignatureFailure();
+                response.setHeader("Result", "MissingSignature");
+                response.setStatus(403);
+                return;
             }
+        }
+
+        WebhookResponse whResponse;
+        Mac mac = signatureHeader == null ? null : registration.newMac();
+        try {
+            File spoolDir = registry.getSpoolDir(token);
+            whResponse = new PayloadReader(spoolThreshold, maxSize, spoolDir == null ? getSharedSpoolDir() : spoolDir)
+                    .digestWith(mac)
+                    .read(
+                            request.getInputStream(),
+                            request.getContentLengthLong(),
+                            request.getCharacterEncoding());
+        } catch (PayloadReader.PayloadTooLargeException e) {
+            response.setHeader("Result", "PayloadTooLarge");
+            response.setStatus(413);
+            return;
         } catch (IOException e) {
             response.setStatus(400);
             return;
         }
 
-        Map<String, String> headers = new HashMap<>();
-        Enumeration<String> iter = request.getHeaderNames();
-        while (iter.hasMoreElements()) {
-            String header = iter.nextElement();
-            headers.put(header, request.getHeader(header));
+        if (mac != null && !WebhookRegistration.checkSignature(mac.doFinal(), signatureHeader)) {
+            whResponse.discard();
+            WebhookMetrics.get().recordSignatureFailure();
+            response.setHeader("Result", "InvalidSignature");
+            response.setStatus(403);
+            return;
         }
 
-        WebhookResponse whResponse = new WebhookResponse(content.toString(), headers);
+        // Reserved only now, so that a call that is not genuine cannot make the sender's own call look like a retry
+        if (deliveryId != null && replay(response, registration.getRecentDeliveries().reserve(deliveryId))) {
+            whResponse.discard();
+            return;
+        }
 
         Logger.getLogger(WebhookRootAction.class.getName()).fine("Webhook called with " + token);
+        WebhookMetrics.get().bodySize.record(whResponse.length());
+        if (registration != null) {
+            WebhookMetrics.get()
+                    .triggerLatencyMillis
+                    .record(System.currentTimeMillis() - registration.getRegisteredAt());
+        }
 
-        WaitForWebhookExecution exec;
-        synchronized (webhooks) {
-            exec = webhooks.remove(token);
-            if (exec == null) {
-                // pipeline has not yet waited on webhook, add an entry to track
-                // that it was already triggered
-                alreadyPosted.put(token, whResponse);
-            }
+        if (deliveryId == null) {
+            deliver(token, whResponse, request, response);
+            return;
         }
+        int status = 500;
+        try {
+            deliver(token, whResponse, request, response);
+            status = response.getStatus();
+        } finally {
+            registration.getRecentDeliveries().complete(deliveryId, status, response.getHeader("Result"));
+        }
+    }
 
-        if (exec != null) {
-            exec.onTriggered(whResponse);
-            response.setHeader("Result", "WebhookTriggered");
+    private void deliver(
+            String token, WebhookResponse whResponse, StaplerRequest2 request, StaplerResponse2 response) {
+        // if the pipeline has not yet waited on the webhook, the registry keeps
+        // the response to track that it was already triggered
+        WebhookRegistry.Claim claim =
+                registry.claimOrPark(token, whResponse, names -> WebhookHeaders.of(request, names));
+
+        if (claim.isClaimed()) {
+            Runnable handOver = () -> {
+                for (WebhookWaiter waiter : claim.completed) {
+                    waiter.complete();
+                }
+                for (WebhookWaiter waiter : claim.accepted) {
+                    waiter.onAccepted();
+                }
+            };
+            if (synchronousDispatch) {
+                handOver.run();
+                response.setHeader("Result", "WebhookTriggered");
+                response.setStatus(200);
+            } else {
+                // The delivery is claimed already, only resuming the pipelines is left to the dispatcher
+                WebhookDispatcher.get().dispatch(token, handOver);
+                response.setHeader("Result", "WebhookDispatched");
+                response.setStatus(202);
+            }
+        } else if (claim.filtered) {
+            // Acknowledged so that the sender does not retry, but nothing waits for it
+            whResponse.discard();
+            response.setHeader("Result", "WebhookFiltered");
             response.setStatus(200);
+        } else if (claim.queued == EarlyDeliveryStore.Result.QUEUE_FULL) {
+            whResponse.discard();
+            response.setHeader("Result", "QueueFull");
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            response.setStatus(429);
+        } else if (claim.queued == EarlyDeliveryStore.Result.DROPPED) {
+            // Larger than all the room early deliveries may take, retrying would not help
+            whResponse.discard();
+            response.setHeader("Result", "TooLargeToQueue");
+            response.setStatus(413);
         } else {
             response.setStatus(202);
         }
     }
 
-    public static void registerAuthToken(WebhookToken hook) {
-        synchronized (authTokens) {
-            authTokens.put(hook.getToken(), hook.getSecretAuthToken());
+    // Answers a repeated call like the first one, or asks to retry later while the first one is being processed
+    private static boolean replay(StaplerResponse2 response, RecentDeliveries.Outcome first) {
+        if (first == null) {
+            return false;
         }
+        if (!first.isComplete()) {
+            response.setHeader("Result", "DeliveryInProgress");
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            response.setStatus(409);
+            return true;
+        }
+        if (first.result != null) {
+            response.setHeader("Result", first.result);
+        }
+        response.setHeader("Duplicate-Delivery", "true");
+        response.setStatus(first.status);
+        return true;
     }
 
-    // Returns null when the webhook has been registered, the content when the webhook has already been called
-    public static WebhookResponse registerWebhook(WaitForWebhookExecution exec) {
-        Logger.getLogger(WebhookRootAction.class.getName()).fine("Registering webhook with token " + exec.getToken());
-        synchronized (webhooks) {
-            if (alreadyPosted.containsKey(exec.getToken())) {
-                return alreadyPosted.remove(exec.getToken());
-            }
-
-            webhooks.put(exec.getToken(), exec);
+    // Answers with a 429 when the bucket had no call left for the request, before anything else is done with it
+    private static boolean isRateLimited(StaplerResponse2 response, long waitNanos) {
+        if (waitNanos == 0) {
+            return false;
         }
-        return null;
+        long retryAfter = TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1);
+        response.setHeader("Result", "RateLimited");
+        response.setHeader("Retry-After", String.valueOf(retryAfter));
+        response.setStatus(429);
+        return true;
+    }
+
+    public static void registerAuthToken(WebhookToken hook) {
+        registerWebhookToken(hook, WebhookRegistration.of(null));
+    }
+
+    // The webhook entries are released when the owning run ends, large bodies are spooled to its directory
+    static void registerWebhookToken(WebhookToken hook, WebhookRegistration registration) {
+        registry.register(hook.getToken(), registration.withSecretAuthToken(hook.getSecretAuthToken()));
+    }
+
+    // The registrations already carry the auth token of their webhook
+    static void registerWebhookTokens(Map<String, WebhookRegistration> registrations) {
+        registry.registerAll(registrations);
+    }
+
+    /**
+     * Returns null when the webhook has been registered, the content when the webhook has already been called.
+     *
+     * @deprecated The execution registers itself under all of its tokens, the deliveries already posted are offered
+     *     to it directly.
+     */
+    @Deprecated
+    public static WebhookResponse registerWebhook(WaitForWebhookExecution exec) {
+        return registerWaiter(exec) ? exec.getLastReceived() : null;
     }
 
     public static void deregisterWebhook(WaitForWebhookExecution exec) {
-        Logger.getLogger(WebhookRootAction.class.getName()).fine("Deregistering webhook with token " + exec.getToken());
-        synchronized (webhooks) {
-            webhooks.remove(exec.getToken());
-        }
-        synchronized (authTokens) {
-            authTokens.remove(exec.getToken());
-        }
+        deregisterWaiter(exec);
+    }
+
+    // Returns false when the waiter has been registered under all of its tokens, true when the deliveries already
+    // posted were all it awaited
+    static boolean registerWaiter(WebhookWaiter waiter) {
+        Logger.getLogger(WebhookRootAction.class.getName())
+                .fine("Registering webhook with tokens " + waiter.getTokens());
+        return registry.takeOrWait(waiter);
+    }
+
+    static void deregisterWaiter(WebhookWaiter waiter) {
+        Logger.getLogger(WebhookRootAction.class.getName())
+                .fine("Deregistering webhook with tokens " + waiter.getTokens());
+        registry.remove(waiter);
+    }
+
+    public static void releaseRun(String runId) {
+        Logger.getLogger(WebhookRootAction.class.getName()).fine("Releasing webhooks of run " + runId);
+        registry.releaseRun(runId);
     }
 
     @Override
@@ -0,0 +1,22 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+/**
+ * Releases the webhooks of a run once it can no longer wait on them.
+ */
+@Extension
+public class WebhookRunListener extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onFinalized(Run<?, ?> run) {
+        WebhookRootAction.releaseRun(run.getExternalizableId());
+    }
+
+    @Override
+    public void onDeleted(Run<?, ?> run) {
+        WebhookRootAction.releaseRun(run.getExternalizableId());
+    }
+}
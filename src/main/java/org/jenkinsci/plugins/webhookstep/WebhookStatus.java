@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes a page of the webhooks known to the registry as JSON, for operators to see what pipelines wait on and what
+ * deliveries are kept in memory. Entries are written as they are read from the registry, so that a large page is
+ * never held as a whole.
+ *
+ * <pre>
+ * {"offset":0,"webhooks":[{"token":"...","run":"job#1","auth":true,"registeredAt":1700000000000,
+ *   "waiters":1,"waitingMillis":5000,"queued":0,"queuedBytes":0}],"next":100}
+ * </pre>
+ *
+ * {@code next} is the offset of the following page and missing on the last one.
+ */
+final class WebhookStatus {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private WebhookStatus() {}
+
+    static void write(WebhookRegistry registry, OutputStream out, int offset, int limit, long now)
+            throws IOException {
+        // One more than the page, to know whether another page follows
+        Iterator<String> tokens = registry.tokens().skip(offset).limit(limit + 1L).iterator();
+        try (JsonGenerator json = FACTORY.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeNumberField("offset", offset);
+            json.writeArrayFieldStart("webhooks");
+            int written = 0;
+            while (written < limit && tokens.hasNext()) {
+                writeEntry(json, registry, tokens.next(), now);
+                written++;
+            }
+            json.writeEndArray();
+            if (tokens.hasNext()) {
+                json.writeNumberField("next", offset + limit);
+            }
+            json.writeEndObject();
+        }
+    }
+
+    private static void writeEntry(JsonGenerator json, WebhookRegistry registry, String token, long now)
+            throws IOException {
+        WebhookRegistration registration = registry.getRegistration(token);
+        List<WebhookWaiter> waiting = registry.getWaiters(token);
+        String runId = registration != null ? registration.runId : waiting.isEmpty() ? null : waiting.get(0).getRunId();
+
+        json.writeStartObject();
+        json.writeStringField("token", token);
+        json.writeStringField("run", runId);
+        json.writeBooleanField("auth", registration != null && registration.hasAuthToken());
+        if (registration != null) {
+            json.writeNumberField("registeredAt", registration.getRegisteredAt());
+        }
+        json.writeNumberField("waiters", waiting.size());
+        // The list is oldest first
+        if (!waiting.isEmpty() && waiting.get(0).getWaitingSince() != 0) {
+            json.writeNumberField("waitingMillis", now - waiting.get(0).getWaitingSince());
+        }
+        json.writeNumberField("queued", registry.getAlreadyPosted().size(token));
+        json.writeNumberField("queuedBytes", registry.getAlreadyPosted().bytes(token));
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,166 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+
+@Extension
+@Symbol("webhookStep")
+public class WebhookStepConfiguration extends GlobalConfiguration {
+
+    static final long DEFAULT_EARLY_DELIVERY_TTL_MINUTES = 24 * 60;
+    static final long DEFAULT_EARLY_DELIVERY_MAX_SIZE_MB = 64;
+    static final long DEFAULT_SPOOL_THRESHOLD_KB = 1024;
+    static final long DEFAULT_MAX_PAYLOAD_SIZE_KB = 10 * 1024;
+    static final int DEFAULT_QUEUE_DEPTH = 10;
+
+    // How long a delivery posted before anyone waits on its token is kept
+    private long earlyDeliveryTtlMinutes = DEFAULT_EARLY_DELIVERY_TTL_MINUTES;
+
+    // Total size of the deliveries kept for tokens nobody waits on yet
+    private long earlyDeliveryMaxSizeMb = DEFAULT_EARLY_DELIVERY_MAX_SIZE_MB;
+
+    // How many deliveries a token may queue before further calls are answered with a 429
+    private int queueDepth = DEFAULT_QUEUE_DEPTH;
+
+    // Bodies larger than this are written to disk and read back when the pipeline asks for them
+    private long spoolThresholdKb = DEFAULT_SPOOL_THRESHOLD_KB;
+
+    // Bodies larger than this are rejected with a 413, registerWebhook can only lower the limit
+    private long maxPayloadSizeKb = DEFAULT_MAX_PAYLOAD_SIZE_KB;
+
+    // Whether calls to tokens no run registered or waits on are rejected with a 404
+    private boolean rejectUnknownTokens;
+
+    // Whether calls are only answered once the pipelines they complete have resumed
+    private boolean synchronousDispatch;
+
+    // Calls accepted per minute for a single webhook, and from a single client address, 0 for no limit
+    private int tokenRateLimit;
+    private int clientRateLimit;
+
+    public WebhookStepConfiguration() {
+        load();
+        apply();
+    }
+
+    public static WebhookStepConfiguration get() {
+        return ExtensionList.lookupSingleton(WebhookStepConfiguration.class);
+    }
+
+    public long getEarlyDeliveryTtlMinutes() {
+        return earlyDeliveryTtlMinutes;
+    }
+
+    @DataBoundSetter
+    public void setEarlyDeliveryTtlMinutes(long earlyDeliveryTtlMinutes) {
+        this.earlyDeliveryTtlMinutes = Math.max(1, earlyDeliveryTtlMinutes);
+        save();
+        apply();
+    }
+
+    public long getEarlyDeliveryMaxSizeMb() {
+        return earlyDeliveryMaxSizeMb;
+    }
+
+    @DataBoundSetter
+    public void setEarlyDeliveryMaxSizeMb(long earlyDeliveryMaxSizeMb) {
+        this.earlyDeliveryMaxSizeMb = Math.max(1, earlyDeliveryMaxSizeMb);
+        save();
+        apply();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    @DataBoundSetter
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = Math.max(1, queueDepth);
+        save();
+        apply();
+    }
+
+    public long getSpoolThresholdKb() {
+        return spoolThresholdKb;
+    }
+
+    @DataBoundSetter
+    public void setSpoolThresholdKb(long spoolThresholdKb) {
+        this.spoolThresholdKb = Math.max(1, spoolThresholdKb);
+        save();
+        apply();
+    }
+
+    public long getMaxPayloadSizeKb() {
+        return maxPayloadSizeKb;
+    }
+
+    @DataBoundSetter
+    public void setMaxPayloadSizeKb(long maxPayloadSizeKb) {
+        this.maxPayloadSizeKb = Math.max(1, maxPayloadSizeKb);
+        save();
+        apply();
+    }
+
+    public boolean isRejectUnknownTokens() {
+        return rejectUnknownTokens;
+    }
+
+    @DataBoundSetter
+    public void setRejectUnknownTokens(boolean rejectUnknownTokens) {
+        this.rejectUnknownTokens = rejectUnknownTokens;
+        save();
+        apply();
+    }
+
+    public boolean isSynchronousDispatch() {
+        return synchronousDispatch;
+    }
+
+    @DataBoundSetter
+    public void setSynchronousDispatch(boolean synchronousDispatch) {
+        this.synchronousDispatch = synchronousDispatch;
+        save();
+        apply();
+    }
+
+    public int getTokenRateLimit() {
+        return tokenRateLimit;
+    }
+
+    @DataBoundSetter
+    public void setTokenRateLimit(int tokenRateLimit) {
+        this.tokenRateLimit = Math.max(0, tokenRateLimit);
+        save();
+        apply();
+    }
+
+    public int getClientRateLimit() {
+        return clientRateLimit;
+    }
+
+    @DataBoundSetter
+    public void setClientRateLimit(int clientRateLimit) {
+        this.clientRateLimit = Math.max(0, clientRateLimit);
+        save();
+        apply();
+    }
+
+    private void apply() {
+        WebhookRootAction.getRegistry()
+                .getAlreadyPosted()
+                .configure(
+                        TimeUnit.MINUTES.toMillis(earlyDeliveryTtlMinutes),
+                        earlyDeliveryMaxSizeMb * 1024 * 1024,
+                        queueDepth);
+        WebhookRootAction.setSpoolThreshold(spoolThresholdKb * 1024);
+        WebhookRootAction.setMaxPayloadSize(maxPayloadSizeKb * 1024);
+        WebhookRootAction.setRejectUnknownTokens(rejectUnknownTokens);
+        WebhookRootAction.setSynchronousDispatch(synchronousDispatch);
+        WebhookRootAction.setRateLimits(tokenRateLimit, clientRateLimit);
+    }
+}
@@ -0,0 +1,142 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+
+/**
+ * Hashed timer wheel firing the timeouts and batch windows of all waiting executions from a single periodic task
+ * on {@link Timer}, so that thousands of waits cost a slot each rather than a scheduled future each.
+ *
+ * <p>New timeouts are handed over through a lock-free queue and only {@link #advance()} touches the wheel. A
+ * timeout never fires before its deadline and at most one tick after it. Cancelled timeouts are dropped the next
+ * time the wheel passes their slot.
+ */
+final class WebhookTimerWheel {
+
+    private static final Logger LOGGER = Logger.getLogger(WebhookTimerWheel.class.getName());
+
+    static final long DEFAULT_TICK_MILLIS = 1000;
+    static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+    private final List<List<Timeout>> wheel;
+    private final int mask;
+    private final LongSupplier clock;
+    private final long startMillis;
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    // Next tick to process, only accessed by advance()
+    private long tick;
+
+    WebhookTimerWheel(long tickMillis, int wheelSize, LongSupplier clock) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        this.tickMillis = tickMillis;
+        this.wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.mask = wheelSize - 1;
+        this.clock = clock;
+        this.startMillis = clock.getAsLong();
+    }
+
+    static WebhookTimerWheel get() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Runs the task once the clock reaches the deadline, unless the returned timeout is cancelled first. The task
+     * runs on the ticking thread and must not block.
+     */
+    Timeout schedule(long deadlineMillis, Runnable task) {
+        Timeout timeout = new Timeout(deadlineMillis, task);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Fires the timeouts whose deadline has passed.
+     */
+    void advance() {
+        List<Timeout> expired = new ArrayList<>();
+        synchronized (this) {
+            long target = (clock.getAsLong() - startMillis) / tickMillis;
+            Timeout added;
+            while ((added = pending.poll()) != null) {
+                if (!added.cancelled) {
+                    place(added);
+                }
+            }
+            for (; tick <= target; tick++) {
+                Iterator<Timeout> slot = wheel.get((int) (tick & mask)).iterator();
+                while (slot.hasNext()) {
+                    Timeout timeout = slot.next();
+                    if (timeout.cancelled) {
+                        slot.remove();
+                    } else if (timeout.remainingRounds <= 0) {
+                        slot.remove();
+                        expired.add(timeout);
+                    } else {
+                        timeout.remainingRounds--;
+                    }
+                }
+            }
+        }
+        for (Timeout timeout : expired) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Webhook timeout failed", e);
+            }
+        }
+    }
+
+    private void place(Timeout timeout) {
+        // Rounded up, so that the slot is never processed before the deadline
+        long due = Math.max(-Math.floorDiv(startMillis - timeout.deadline, tickMillis), tick);
+        timeout.remainingRounds = (due - tick) / wheel.size();
+        wheel.get((int) (due & mask)).add(timeout);
+    }
+
+    static final class Timeout {
+        final long deadline;
+        private final Runnable task;
+        private volatile boolean cancelled;
+
+        // Full turns of the wheel left before the deadline, only accessed by advance()
+        private long remainingRounds;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    // Created and started on first use, ticking on the shared Jenkins timer
+    private static final class Shared {
+        static final WebhookTimerWheel INSTANCE =
+                new WebhookTimerWheel(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, System::currentTimeMillis);
+
+        static {
+            Timer.get()
+                    .scheduleAtFixedRate(
+                            INSTANCE::advance, DEFAULT_TICK_MILLIS, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -13,11 +13,17 @@ public class WebhookToken implements Serializable {
     private final String token;
     private final String url;
     private final Secret secretAuthToken;
+    private final boolean broadcast;
 
     public WebhookToken(String token, String url, Secret secretAuthToken) {
+        this(token, url, secretAuthToken, false);
+    }
+
+    public WebhookToken(String token, String url, Secret secretAuthToken, boolean broadcast) {
         this.token = token;
         this.url = url;
         this.secretAuthToken = secretAuthToken;
+        this.broadcast = broadcast;
     }
 
     @Whitelisted
@@ -39,6 +45,14 @@ public class WebhookToken implements Serializable {
         return url;
     }
 
+    /**
+     * Whether a single call to the webhook completes every pipeline waiting on it.
+     */
+    @Whitelisted
+    public boolean isBroadcast() {
+        return broadcast;
+    }
+
     public Secret getSecretAuthToken() {
         return this.secretAuthToken;
     }
@@ -0,0 +1,61 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * A step execution parked in the {@link WebhookRegistry} until deliveries are posted to one of its tokens.
+ */
+interface WebhookWaiter {
+
+    enum Offer {
+        // The waiter is already done, the delivery has to go elsewhere
+        REJECTED,
+        // The delivery was taken and the waiter keeps waiting for more
+        ACCEPTED,
+        // The delivery was taken and the waiter has all it waits for
+        COMPLETE
+    }
+
+    Collection<String> getTokens();
+
+    // Whether the waiter shares deliveries with every other waiter on its tokens
+    default boolean isBroadcast() {
+        return false;
+    }
+
+    // The request headers the waiter may return, null for all of them
+    default Collection<String> getHeaderNames() {
+        return null;
+    }
+
+    // Conditions a delivery has to meet to be offered to the waiter, null to take every delivery
+    default DeliveryFilter getFilter() {
+        return null;
+    }
+
+    // Externalizable id of the run the waiter belongs to, null when unknown
+    String getRunId();
+
+    // When the waiter started waiting, in milliseconds since the epoch, kept across restarts
+    long getWaitingSince();
+
+    File getSpoolDir();
+
+    /**
+     * Called by the registry while it holds the token the delivery was posted to, must not block. A broadcast
+     * delivery is offered to every waiter as the same instance.
+     */
+    Offer offer(String token, WebhookResponse response);
+
+    /**
+     * Called outside of the registry once an offer was accepted without completing the waiter.
+     */
+    void onAccepted();
+
+    /**
+     * Called outside of the registry once the waiter is no longer registered under any of its tokens, returns
+     * what was offered to the pipeline.
+     */
+    void complete();
+}
@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class DeliveryFilterTest {
+
+    private static final WebhookResponse PUSH = new WebhookResponse(
+            "{\"ref\":\"refs/heads/main\",\"forced\":false,\"commits\":[{\"id\":\"a1\"},{\"id\":\"b2\"}]}",
+            Map.of("X-Event", "push"));
+
+    @Test
+    public void testHeaderConditions() {
+        assertTrue(filter(List.of("x-event=push"), null).matches(PUSH));
+        assertTrue(filter(List.of("X-Event=ping", "X-Event=push"), null).matches(PUSH));
+        assertFalse(filter(List.of("X-Event=ping"), null).matches(PUSH));
+        assertFalse(filter(List.of("X-Missing=push"), null).matches(PUSH));
+    }
+
+    @Test
+    public void testJsonConditions() {
+        assertTrue(filter(null, List.of("$.ref=refs/heads/main", "$.forced=false")).matches(PUSH));
+        assertTrue(filter(null, List.of("$.commits[*].id=b2")).matches(PUSH));
+        assertFalse(filter(null, List.of("$.ref=refs/heads/main", "$.forced=true")).matches(PUSH));
+        assertFalse(filter(null, List.of("$.ref=main")).matches(new WebhookResponse("not json", Map.of())));
+    }
+
+    @Test
+    public void testEveryNameHasToMatch() {
+        assertTrue(filter(List.of("X-Event=push"), List.of("$.ref=refs/heads/main")).matches(PUSH));
+        assertFalse(filter(List.of("X-Event=push"), List.of("$.ref=refs/heads/dev")).matches(PUSH));
+    }
+
+    @Test
+    public void testInvalidConditions() {
+        assertNull(DeliveryFilter.of(List.of(), null));
+        assertThrows(IllegalArgumentException.class, () -> DeliveryFilter.of(List.of("X-Event"), null));
+        assertThrows(IllegalArgumentException.class, () -> DeliveryFilter.of(null, List.of("action=opened")));
+    }
+
+    private static DeliveryFilter filter(List<String> headers, List<String> json) {
+        return DeliveryFilter.of(headers, json);
+    }
+}
@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class EarlyDeliveryStoreTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void testExpiredDeliveriesAreDropped() {
+        EarlyDeliveryStore store = new EarlyDeliveryStore(1000, Long.MAX_VALUE, 10, now::get);
+        store.put("token", response("content"), 0);
+
+        now.set(999);
+        store.evict();
+        assertEquals(1, store.size());
+
+        now.set(1000);
+        assertNull(store.take("token"));
+        assertEquals(0, store.size());
+        assertEquals(0, store.bytes());
+    }
+
+    @Test
+    public void testOldestDeliveriesAreEvicted() {
+        WebhookResponse first = response("first");
+        WebhookResponse second = response("second");
+        EarlyDeliveryStore store = new EarlyDeliveryStore(
+                Long.MAX_VALUE / 2, first.estimateSize() + second.estimateSize() + 1, 10, now::get);
+
+        store.put("first", first, 0);
+        store.put("second", second, 0);
+        store.put("third", response("third"), 0);
+        // eviction is left to the caller, once it released the token
+        store.evict();
+
+        assertNull(store.take("first"));
+        assertSame(second, store.take("second"));
+    }
+
+    @Test
+    public void testOversizedDeliveryIsRejected() {
+        EarlyDeliveryStore store = new EarlyDeliveryStore(Long.MAX_VALUE / 2, 10, 10, now::get);
+
+        assertEquals(EarlyDeliveryStore.Result.DROPPED, store.put("token", response("content"), 0));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testDeliveriesAreQueuedInOrder() {
+        EarlyDeliveryStore store = new EarlyDeliveryStore(Long.MAX_VALUE / 2, Long.MAX_VALUE, 2, now::get);
+        WebhookResponse first = response("first");
+        WebhookResponse second = response("second");
+
+        assertEquals(EarlyDeliveryStore.Result.STORED, store.put("token", first, 0));
+        assertEquals(EarlyDeliveryStore.Result.STORED, store.put("token", second, 0));
+        assertEquals(EarlyDeliveryStore.Result.QUEUE_FULL, store.put("token", response("third"), 0));
+        // a webhook can allow a deeper queue than the default
+        assertEquals(EarlyDeliveryStore.Result.STORED, store.put("token", response("third"), 3));
+
+        assertSame(first, store.take("token"));
+        assertSame(second, store.take("token"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testRemoveOnlyRemovesStoredDelivery() {
+        EarlyDeliveryStore store = new EarlyDeliveryStore(Long.MAX_VALUE / 2, Long.MAX_VALUE, 10, now::get);
+        WebhookResponse first = response("first");
+        store.put("token", first, 0);
+
+        assertSame(first, store.peek("token"));
+        assertTrue(store.remove("token", first));
+        assertFalse(store.remove("token", first));
+        assertNull(store.peek("token"));
+        assertEquals(0, store.bytes());
+    }
+
+    @Test
+    public void testListenerIsToldInOrder() {
+        EarlyDeliveryStore store = new EarlyDeliveryStore(1000, Long.MAX_VALUE, 10, now::get);
+        List<String> events = new ArrayList<>();
+        store.setListener(new EarlyDeliveryStore.Listener() {
+            @Override
+            public void stored(String token, WebhookResponse response, long expiresAt) {
+                events.add("stored " + response.getContent());
+            }
+
+            @Override
+            public void removed(WebhookResponse response) {
+                events.add("removed " + response.getContent());
+            }
+        });
+        store.put("token", response("taken"), 0);
+        store.put("token", response("expired"), 0);
+        store.take("token");
+
+        now.set(1000);
+        assertNull(store.take("token"));
+        // the expired delivery is only announced by the next eviction
+        assertEquals(List.of("stored taken", "stored expired", "removed taken"), events);
+        store.evict();
+        assertEquals(List.of("stored taken", "stored expired", "removed taken", "removed expired"), events);
+    }
+
+    private static WebhookResponse response(String content) {
+        return new WebhookResponse(content, Collections.emptyMap());
+    }
+}
@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class JsonProjectionTest {
+
+    private static final String DOCUMENT = "{\"action\":\"opened\",\"number\":42,\"draft\":false,"
+            + "\"pull_request\":{\"head\":{\"sha\":\"abc123\",\"ref\":\"main\"},\"body\":\"long text\"},"
+            + "\"labels\":[{\"name\":\"bug\"},{\"name\":\"ci\",\"color\":\"red\"}],\"reviewers\":null}";
+
+    @Test
+    public void testSelectsValues() throws IOException {
+        Map<String, Object> selected = project(
+                "$.action", "$.number", "$.draft", "$['pull_request'].head.sha", "$.labels[1].name", "$.reviewers");
+
+        assertEquals("opened", selected.get("$.action"));
+        assertEquals(42, selected.get("$.number"));
+        assertEquals(false, selected.get("$.draft"));
+        assertEquals("abc123", selected.get("$['pull_request'].head.sha"));
+        assertEquals("ci", selected.get("$.labels[1].name"));
+        assertNull(selected.get("$.reviewers"));
+    }
+
+    @Test
+    public void testWildcardsSelectLists() throws IOException {
+        Map<String, Object> selected = project("$.labels[*].name", "$.pull_request.head.*", "$.missing[*]");
+
+        assertEquals(List.of("bug", "ci"), selected.get("$.labels[*].name"));
+        assertEquals(List.of("abc123", "main"), selected.get("$.pull_request.head.*"));
+        assertEquals(List.of(), selected.get("$.missing[*]"));
+    }
+
+    @Test
+    public void testNestedSelections() throws IOException {
+        // the head object is materialized for the first expression, the second is evaluated on it
+        Map<String, Object> selected = project("$.pull_request.head", "$.pull_request.head.sha", "$");
+
+        assertEquals(Map.of("sha", "abc123", "ref", "main"), selected.get("$.pull_request.head"));
+        assertEquals("abc123", selected.get("$.pull_request.head.sha"));
+        assertEquals(JsonProjection.parse(stream(DOCUMENT), StandardCharsets.UTF_8), selected.get("$"));
+    }
+
+    @Test
+    public void testMissingValuesAreNull() throws IOException {
+        Map<String, Object> selected = project("$.missing", "$.labels[5].name", "$.action.length");
+
+        assertEquals(3, selected.size());
+        assertNull(selected.get("$.missing"));
+        assertNull(selected.get("$.labels[5].name"));
+        assertNull(selected.get("$.action.length"));
+    }
+
+    @Test
+    public void testUnsupportedExpressions() {
+        assertThrows(IllegalArgumentException.class, () -> JsonProjection.compile(List.of("action")));
+        assertThrows(IllegalArgumentException.class, () -> JsonProjection.compile(List.of("$..name")));
+        assertThrows(IllegalArgumentException.class, () -> JsonProjection.compile(List.of("$.labels[?(@.name)]")));
+    }
+
+    @Test
+    public void testInvalidJson() {
+        JsonProjection projection = JsonProjection.compile(List.of("$.action"));
+        assertThrows(IOException.class, () -> projection.project(stream("{\"action\":"), StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, Object> project(String... expressions) throws IOException {
+        return JsonProjection.compile(Arrays.asList(expressions)).project(stream(DOCUMENT), StandardCharsets.UTF_8);
+    }
+
+    private static ByteArrayInputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
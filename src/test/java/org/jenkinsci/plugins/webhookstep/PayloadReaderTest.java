@@ -0,0 +1,154 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PayloadReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testBodyWithDeclaredLength() throws Exception {
+        byte[] body = "{\"action\":\"done\"}".getBytes(StandardCharsets.UTF_8);
+
+        WebhookResponse response = read(body, body.length, null, 1024);
+
+        assertArrayEquals(body, response.getBytes());
+        assertEquals("{\"action\":\"done\"}", response.getContent());
+    }
+
+    @Test
+    public void testBodyWithUnknownLength() throws Exception {
+        byte[] body = new byte[20000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+
+        WebhookResponse response = read(body, -1, null, 1024 * 1024);
+
+        assertArrayEquals(body, response.getBytes());
+        assertEquals(0, spoolDir().list().length);
+    }
+
+    @Test
+    public void testBodyIsDecodedWithDeclaredCharset() throws Exception {
+        byte[] body = "déjà vu".getBytes(StandardCharsets.ISO_8859_1);
+
+        WebhookResponse response = read(body, body.length, "ISO-8859-1", 1024);
+
+        assertEquals("déjà vu", response.getContent());
+    }
+
+    @Test
+    public void testLargeBodyIsSpooled() throws Exception {
+        byte[] body = new byte[5000];
+        body[4999] = 42;
+
+        WebhookResponse response = read(body, body.length, null, 4096);
+
+        assertEquals(1, spoolDir().list().length);
+        assertArrayEquals(body, response.getBytes());
+        response.discard();
+        assertEquals(0, spoolDir().list().length);
+    }
+
+    @Test
+    public void testSharedSpoolFileIsCopiedForTheRun() throws Exception {
+        byte[] body = new byte[5000];
+        body[4999] = 42;
+        File runDir = new File(tmp.getRoot(), "run");
+        WebhookResponse shared = read(body, body.length, null, 4096);
+
+        WebhookResponse kept = shared.withSpoolDir(runDir);
+        assertSame(kept, kept.withSpoolDir(runDir));
+        assertEquals(1, runDir.list().length);
+
+        // the sweeper deleting the shared file does not affect the run
+        shared.discard();
+        assertArrayEquals(body, kept.getBytes());
+
+        // only the file of the run is deleted when it was read
+        kept.release(spoolDir());
+        assertEquals(1, runDir.list().length);
+        kept.release(runDir);
+        assertEquals(0, runDir.list().length);
+    }
+
+    @Test
+    public void testBodyOfExactlyThresholdSizeIsKeptInMemory() throws Exception {
+        byte[] body = new byte[4096];
+
+        WebhookResponse response = read(body, -1, null, 4096);
+
+        assertArrayEquals(body, response.getBytes());
+        assertEquals(0, spoolDir().list().length);
+    }
+
+    @Test
+    public void testBodyIsDigestedWhileRead() throws Exception {
+        byte[] body = new byte[50000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31);
+        }
+        SecretKeySpec key = new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        Mac expected = Mac.getInstance("HmacSHA256");
+        expected.init(key);
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(key);
+
+        // one part of the body is read into memory, the rest is spooled
+        new PayloadReader(4096, Long.MAX_VALUE, spoolDir())
+                .digestWith(mac)
+                .read(new ByteArrayInputStream(body), -1, null);
+
+        assertArrayEquals(expected.doFinal(body), mac.doFinal());
+    }
+
+    @Test
+    public void testBodyOverLimitIsRejected() throws Exception {
+        byte[] body = new byte[1025];
+
+        assertThrows(
+                PayloadReader.PayloadTooLargeException.class,
+                () -> read(body, -1, null, 4096, body.length - 1));
+    }
+
+    @Test
+    public void testSpooledBodyOverLimitIsRejectedAndDeleted() throws Exception {
+        byte[] body = new byte[50000];
+
+        assertThrows(
+                PayloadReader.PayloadTooLargeException.class,
+                () -> read(body, -1, null, 4096, body.length - 1));
+        assertEquals(0, spoolDir().list().length);
+    }
+
+    private WebhookResponse read(byte[] body, long contentLength, String charset, long spoolThreshold)
+            throws Exception {
+        return read(body, contentLength, charset, spoolThreshold, Long.MAX_VALUE);
+    }
+
+    private WebhookResponse read(byte[] body, long contentLength, String charset, long spoolThreshold, long maxSize)
+            throws Exception {
+        return new PayloadReader(spoolThreshold, maxSize, spoolDir())
+                .read(new ByteArrayInputStream(body), contentLength, charset);
+    }
+
+    private File spoolDir() throws Exception {
+        File dir = new File(tmp.getRoot(), "spool");
+        dir.mkdirs();
+        return dir;
+    }
+}
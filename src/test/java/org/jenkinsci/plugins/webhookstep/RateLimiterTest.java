@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    private long now = 1000;
+    private final RateLimiter limiter = new RateLimiter(() -> now);
+
+    @Test
+    public void testUnlimitedByDefault() {
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, limiter.acquire("token"));
+        }
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    public void testBurstThenSustainedRate() {
+        limiter.configure(60);
+        for (int i = 0; i < 60; i++) {
+            assertEquals(0, limiter.acquire("token"));
+        }
+        // one call per second once the burst is used up
+        assertEquals(TimeUnit.SECONDS.toNanos(1), limiter.acquire("token"));
+        now += TimeUnit.MILLISECONDS.toNanos(400);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(600), limiter.acquire("token"));
+        now += TimeUnit.MILLISECONDS.toNanos(600);
+        assertEquals(0, limiter.acquire("token"));
+        assertTrue(limiter.acquire("token") > 0);
+    }
+
+    @Test
+    public void testKeysHaveTheirOwnBucket() {
+        limiter.configure(1);
+        assertEquals(0, limiter.acquire("first"));
+        assertTrue(limiter.acquire("first") > 0);
+        assertEquals(0, limiter.acquire("second"));
+    }
+
+    @Test
+    public void testFullBucketsAreSwept() {
+        limiter.configure(1);
+        for (int i = 0; i < 2000; i++) {
+            limiter.acquire("token-" + i);
+        }
+        // every bucket is full again a minute later, and forgotten when a new key arrives
+        now += TimeUnit.MINUTES.toNanos(1);
+        limiter.acquire("new");
+        assertEquals(1, limiter.size());
+    }
+
+    @Test
+    public void testKeysPastTheCapAreRefused() {
+        limiter.configure(1);
+        for (int i = 0; i < RateLimiter.MAX_BUCKETS; i++) {
+            assertEquals(0, limiter.acquire("token-" + i));
+        }
+        // keys already known keep their own bucket
+        assertTrue(limiter.acquire("new") > 0);
+        assertTrue(limiter.acquire("token-0") > 0);
+        assertEquals(RateLimiter.MAX_BUCKETS, limiter.size());
+
+        // room is made once the buckets are full again
+        now += TimeUnit.MINUTES.toNanos(1);
+        assertEquals(0, limiter.acquire("new"));
+    }
+
+    @Test
+    public void testSavingTheSameRateKeepsBuckets() {
+        limiter.configure(1);
+        assertEquals(0, limiter.acquire("token"));
+        limiter.configure(1);
+        assertTrue(limiter.acquire("token") > 0);
+
+        limiter.configure(2);
+        assertEquals(0, limiter.acquire("token"));
+    }
+}
@@ -0,0 +1,57 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class RecentDeliveriesTest {
+
+    private long now = 1000;
+    private final RecentDeliveries recent = new RecentDeliveries(() -> now);
+
+    @Test
+    public void testRetryGetsFirstOutcome() {
+        assertNull(recent.reserve("id"));
+        // a retry while the first call is processed
+        assertFalse(recent.reserve("id").isComplete());
+
+        recent.complete("id", 202, "WebhookDispatched");
+
+        RecentDeliveries.Outcome first = recent.get("id");
+        assertEquals(202, first.status);
+        assertEquals("WebhookDispatched", first.result);
+        assertEquals(first, recent.reserve("id"));
+    }
+
+    @Test
+    public void testFailedCallIsForgotten() {
+        recent.reserve("id");
+        recent.complete("id", 429, "QueueFull");
+
+        assertNull(recent.get("id"));
+        assertNull(recent.reserve("id"));
+    }
+
+    @Test
+    public void testIdsExpire() {
+        recent.reserve("id");
+        recent.complete("id", 200, "WebhookTriggered");
+
+        now += RecentDeliveries.WINDOW;
+        assertNull(recent.get("id"));
+        assertEquals(0, recent.size());
+    }
+
+    @Test
+    public void testOldestIdIsEvictedWhenFull() {
+        for (int i = 0; i <= RecentDeliveries.CAPACITY; i++) {
+            recent.reserve("id-" + i);
+        }
+
+        assertEquals(RecentDeliveries.CAPACITY, recent.size());
+        assertNull(recent.get("id-0"));
+        assertFalse(recent.get("id-1").isComplete());
+    }
+}
@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.webhookstep;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -7,6 +8,8 @@ import hudson.FilePath;
 import hudson.model.Result;
 import java.io.File;
 import java.net.URL;
+import org.htmlunit.HttpMethod;
+import org.htmlunit.WebRequest;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
@@ -142,4 +145,47 @@ public class WaitForWebhookRestartTest {
             rr.assertLogContains("\"action\":\"done\"", run);
         });
     }
+
+    @Test
+    public void testEarlyDeliveryAndAuthTokenSurviveRestart() throws Exception {
+        rr.then(rr -> {
+            WorkflowJob p = rr.jenkins.createProject(WorkflowJob.class, "prj");
+            p.setDefinition(new CpsFlowDefinition(
+                    "def hook = registerWebhook(token: \"test-token\", authToken: \"123\")\n"
+                            + "semaphore 'started'\n"
+                            + "def data = waitForWebhook(hook)\n"
+                            + "echo \"data=${data}\"",
+                    true));
+
+            WorkflowRun b = p.scheduleBuild2(0).getStartCondition().get();
+            SemaphoreStep.waitForStart("started/1", b);
+            // posted while the pipeline does not wait yet
+            assertEquals(202, post(rr, "webhook-step/test-token", "early", "123"));
+        });
+
+        rr.then(rr -> {
+            WorkflowRun run = rr.jenkins.getItemByFullName("prj", WorkflowJob.class).getBuildByNumber(1);
+            assertNotNull(run);
+
+            // the webhook is still protected by its auth token
+            assertEquals(403, post(rr, "webhook-step/test-token", "forged", null));
+
+            SemaphoreStep.success("started/1", null);
+
+            rr.waitForCompletion(run);
+            rr.assertBuildStatus(Result.SUCCESS, run);
+            rr.assertLogContains("data=early", run);
+        });
+    }
+
+    private static int post(JenkinsRule r, String path, String content, String authToken) throws Exception {
+        JenkinsRule.WebClient wc = r.createWebClient();
+        wc.setThrowExceptionOnFailingStatusCode(false);
+        WebRequest request = new WebRequest(new URL(r.getURL(), path), HttpMethod.POST);
+        if (authToken != null) {
+            request.setAdditionalHeader("Authorization", authToken);
+        }
+        request.setRequestBody(content);
+        return wc.getPage(request).getWebResponse().getStatusCode();
+    }
 }
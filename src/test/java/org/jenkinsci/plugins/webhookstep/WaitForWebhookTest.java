@@ -3,15 +3,26 @@ package org.jenkinsci.plugins.webhookstep;
 import static net.javacrumbs.jsonunit.JsonAssert.assertJsonEquals;
 import static net.javacrumbs.jsonunit.JsonAssert.when;
 import static net.javacrumbs.jsonunit.core.Option.IGNORING_ARRAY_ORDER;
+import static net.javacrumbs.jsonunit.core.Option.IGNORING_EXTRA_FIELDS;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 import hudson.FilePath;
 import hudson.model.Result;
+import hudson.util.Secret;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import jenkins.model.Jenkins;
 import org.hamcrest.Matchers;
 import org.hamcrest.core.AnyOf;
 import org.htmlunit.FailingHttpStatusCodeException;
@@ -25,6 +36,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
 
 public class WaitForWebhookTest {
 
@@ -157,6 +169,433 @@ public class WaitForWebhookTest {
         j.assertLogContains("\"action\":\"done\"", r);
     }
 
+    @Test
+    public void testWaitHookWithSelectedHeaders() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String webHook_ID = "test-token_" + name.getMethodName();
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\")  \n"
+                + "def data = waitForWebhook(webhookToken: hook, withHeaders: true, headers: ['X-Event'])  \n"
+                + "echo \"count=${data.headers.size()}\"  \n"
+                + "echo \"event=${data.headers['x-event']}\"  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+
+        JenkinsRule.WebClient wc = j.createWebClient();
+        wc.addRequestHeader("X-Event", "push");
+        WebRequest webRequest = new WebRequest(new URL(j.getURL(), "webhook-step/" + webHook_ID), HttpMethod.POST);
+        webRequest.setRequestBody("{}");
+        assertThat(wc.getPage(webRequest).getWebResponse().getStatusCode(), isSuccessful());
+
+        j.assertBuildStatusSuccess(j.waitForCompletion(r));
+        j.assertLogContains("count=1", r);
+        j.assertLogContains("event=push", r);
+    }
+
+    @Test
+    public void testWaitHookJsonSelect() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String webHook_ID = "test-token_" + name.getMethodName();
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\")  \n"
+                + "def data = waitForWebhook(webhookToken: hook, format: 'json', "
+                + "select: ['$.action', '$.pull_request.head.sha', '$.labels[*].name'])  \n"
+                + "echo \"action=${data['$.action']}\"  \n"
+                + "echo \"sha=${data['$.pull_request.head.sha']}\"  \n"
+                + "echo \"labels=${data['$.labels[*].name']}\"  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+
+        JenkinsRule.WebClient wc = j.createWebClient();
+        WebRequest webRequest = new WebRequest(new URL(j.getURL(), "webhook-step/" + webHook_ID), HttpMethod.POST);
+        webRequest.setRequestBody("{\"action\":\"opened\",\"pull_request\":{\"head\":{\"sha\":\"abc123\"},"
+                + "\"body\":\"ignored\"},\"labels\":[{\"name\":\"bug\"},{\"name\":\"ci\"}]}");
+        assertThat(wc.getPage(webRequest).getWebResponse().getStatusCode(), isSuccessful());
+
+        j.assertBuildStatusSuccess(j.waitForCompletion(r));
+        j.assertLogContains("action=opened", r);
+        j.assertLogContains("sha=abc123", r);
+        j.assertLogContains("labels=[bug, ci]", r);
+    }
+
+    @Test
+    public void testWaitHookInvalidJsonFails() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String webHook_ID = "test-token_" + name.getMethodName();
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\")  \n"
+                + "waitForWebhook(webhookToken: hook, format: 'json')  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+
+        JenkinsRule.WebClient wc = j.createWebClient();
+        WebRequest webRequest = new WebRequest(new URL(j.getURL(), "webhook-step/" + webHook_ID), HttpMethod.POST);
+        webRequest.setRequestBody("{\"action\":");
+        assertThat(wc.getPage(webRequest).getWebResponse().getStatusCode(), isSuccessful());
+
+        j.assertBuildStatus(Result.FAILURE, j.waitForCompletion(r));
+        j.assertLogContains("did not post valid JSON", r);
+    }
+
+    @Test
+    public void testWaitHookFilter() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String webHook_ID = "test-token_" + name.getMethodName();
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\")  \n"
+                + "def data = waitForWebhook(webhookToken: hook, headerFilter: ['X-Event=push'])  \n"
+                + "echo \"data=${data}\"  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+        // the step has to wait before deliveries are filtered rather than kept
+        while (WebhookRootAction.getRegistry().getWaiters(webHook_ID).isEmpty()) {
+            Thread.sleep(100);
+        }
+
+        JenkinsRule.WebClient wc = j.createWebClient();
+        wc.addRequestHeader("X-Event", "ping");
+        WebRequest ping = new WebRequest(new URL(j.getURL(), "webhook-step/" + webHook_ID), HttpMethod.POST);
+        ping.setRequestBody("ignored");
+        WebResponse filtered = wc.getPage(ping).getWebResponse();
+        assertThat(filtered.getStatusCode(), Matchers.is(200));
+        assertThat(filtered.getResponseHeaderValue("Result"), Matchers.is("WebhookFiltered"));
+
+        wc.addRequestHeader("X-Event", "push");
+        WebRequest push = new WebRequest(new URL(j.getURL(), "webhook-step/" + webHook_ID), HttpMethod.POST);
+        push.setRequestBody("wanted");
+        assertThat(wc.getPage(push).getWebResponse().getStatusCode(), isSuccessful());
+
+        j.assertBuildStatusSuccess(j.waitForCompletion(r));
+        j.assertLogContains("data=wanted", r);
+        j.assertLogNotContains("data=ignored", r);
+    }
+
+    @Test
+    public void testWaitHookBatch() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        // build a webhook name that is unique for this test
+        String webHook_ID = "test-token_" + name.getMethodName();
+
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\")  \n"
+                + "def data = waitForWebhook(webhookToken: hook, maxEvents: 3)  \n"
+                + "echo \"count=${data.size()}\"  \n"
+                + "echo \"data=${data.join(',')}\"  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+
+        j.assertBuildStatus(null, r);
+
+        for (String shard : new String[] {"one", "two", "three"}) {
+            WebResponse webResponse = trigger_webhook("webhook-step/" + webHook_ID, shard);
+            assertThat("Triggering the webhook should succeed", webResponse.getStatusCode(), isSuccessful());
+        }
+
+        j.waitForCompletion(r);
+        j.assertBuildStatus(Result.SUCCESS, r);
+        j.assertLogContains("count=3", r);
+        j.assertLogContains("data=one,two,three", r);
+    }
+
+    @Test
+    public void testWaitAnyHook() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String success = "success_" + name.getMethodName();
+        String failure = "failure_" + name.getMethodName();
+
+        String pipelineCode = "def success = registerWebhook(token: \"" + success + "\")  \n"
+                + "def failure = registerWebhook(token: \"" + failure + "\")  \n"
+                + "def data = waitForAnyWebhook(webhookTokens: [success, failure])  \n"
+                + "echo \"token=${data.token}\"  \n"
+                + "echo \"data=${data.content}\"  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+
+        j.assertBuildStatus(null, r);
+
+        WebResponse webResponse = trigger_webhook("webhook-step/" + failure, "broken");
+        assertThat("Triggering the webhook should succeed", webResponse.getStatusCode(), isSuccessful());
+
+        j.waitForCompletion(r);
+        j.assertBuildStatus(Result.SUCCESS, r);
+        j.assertLogContains("token=" + failure, r);
+        j.assertLogContains("data=broken", r);
+    }
+
+    @Test
+    public void testRegisterManyHooks() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String prefix = "job_" + name.getMethodName();
+        String pipelineCode = "def hooks = registerWebhooks(count: 3, token: \"" + prefix + "\")  \n"
+                + "echo \"url=${hooks[0].url}\"  \n"
+                + "def data = waitForAnyWebhook(webhookTokens: hooks)  \n"
+                + "echo \"token=${data.token}\"  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+        while (WebhookRootAction.getRegistry().getRegistration(prefix + "-3") == null) {
+            Thread.sleep(100);
+        }
+
+        WebResponse webResponse = trigger_webhook("webhook-step/" + prefix + "-2", "done");
+        assertThat("Triggering the webhook should succeed", webResponse.getStatusCode(), isSuccessful());
+
+        j.assertBuildStatusSuccess(j.waitForCompletion(r));
+        j.assertLogContains("webhook-step/" + prefix + "-1", r);
+        j.assertLogContains("token=" + prefix + "-2", r);
+    }
+
+    @Test
+    public void testWaitBroadcastHook() throws Exception {
+        String webHook_ID = "test-token_" + name.getMethodName();
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\", broadcast: true)  \n"
+                + "def data = waitForWebhook(webhookToken: hook)  \n"
+                + "echo \"data=${data}\"  \n";
+
+        WorkflowJob first = j.jenkins.createProject(WorkflowJob.class, "first");
+        first.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowJob second = j.jenkins.createProject(WorkflowJob.class, "second");
+        second.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r1 = first.scheduleBuild2(0).waitForStart();
+        WorkflowRun r2 = second.scheduleBuild2(0).waitForStart();
+
+        // a broadcast only reaches the pipelines already waiting
+        while (WebhookRootAction.getRegistry().getWaiters(webHook_ID).size() < 2) {
+            Thread.sleep(100);
+        }
+
+        WebResponse webResponse = trigger_webhook("webhook-step/" + webHook_ID, "refreshed");
+        assertThat(webResponse.getStatusCode(), isSuccessful());
+
+        j.assertBuildStatusSuccess(j.waitForCompletion(r1));
+        j.assertBuildStatusSuccess(j.waitForCompletion(r2));
+        j.assertLogContains("data=refreshed", r1);
+        j.assertLogContains("data=refreshed", r2);
+    }
+
+    @Test
+    public void testWaitHookTimeoutReturnsDefault() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String pipelineCode = "def hook = registerWebhook()  \n"
+                + "def data = waitForWebhook(webhookToken: hook, timeout: 1, defaultPayload: 'nothing')  \n"
+                + "echo \"data=${data}\"  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = j.buildAndAssertSuccess(p);
+        j.assertLogContains("data=nothing", r);
+    }
+
+    @Test
+    public void testWaitHookTimeoutAborts() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String webHook_ID = "test-token_" + name.getMethodName();
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\")  \n"
+                + "waitForWebhook(webhookToken: hook, timeout: 1)  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = j.assertBuildStatus(Result.ABORTED, p.scheduleBuild2(0));
+        j.assertLogContains("No call to webhook " + webHook_ID + " within 1 seconds", r);
+        // the expired wait no longer takes deliveries
+        assertThat(WebhookRootAction.getRegistry().getWaiters(webHook_ID), Matchers.empty());
+    }
+
+    @Test
+    public void testSynchronousDispatch() throws Exception {
+        WebhookStepConfiguration.get().setSynchronousDispatch(true);
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String webHook_ID = "test-token_" + name.getMethodName();
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\")  \n"
+                + "def data = waitForWebhook(webhookToken: hook)  \n"
+                + "echo \"data=${data}\"  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+        while (WebhookRootAction.getRegistry().getWaiters(webHook_ID).isEmpty()) {
+            Thread.sleep(100);
+        }
+
+        WebResponse webResponse = trigger_webhook("webhook-step/" + webHook_ID, "done");
+        assertThat(webResponse.getStatusCode(), Matchers.is(200));
+        assertThat(webResponse.getResponseHeaderValue("Result"), Matchers.is("WebhookTriggered"));
+
+        j.assertBuildStatusSuccess(j.waitForCompletion(r));
+        j.assertLogContains("data=done", r);
+    }
+
+    @Test
+    public void testCallsOverRateLimitAreRejected() throws Exception {
+        WebhookStepConfiguration.get().setTokenRateLimit(2);
+        String token = "test-token_" + name.getMethodName();
+        String path = "webhook-step/" + token;
+        WebhookRootAction.registerAuthToken(new WebhookToken(token, null, null));
+        WebhookRootAction.registerAuthToken(new WebhookToken(token + "-other", null, null));
+
+        assertThat(trigger_webhook(path, "first").getStatusCode(), isSuccessful());
+        assertThat(trigger_webhook(path, "second").getStatusCode(), isSuccessful());
+        FailingHttpStatusCodeException ex =
+                assertThrows(FailingHttpStatusCodeException.class, () -> trigger_webhook(path, "third"));
+
+        assertThat(ex.getStatusCode(), Matchers.is(429));
+        assertThat(ex.getResponse().getResponseHeaderValue("Result"), Matchers.is("RateLimited"));
+        assertThat(ex.getResponse().getResponseHeaderValue("Retry-After"), Matchers.is("30"));
+        // other webhooks have their own bucket
+        assertThat(trigger_webhook(path + "-other", "first").getStatusCode(), isSuccessful());
+        // calls to tokens nobody registered are only limited per client address
+        for (int i = 0; i < 3; i++) {
+            assertThat(trigger_webhook(path + "-unregistered", "call").getStatusCode(), isSuccessful());
+        }
+    }
+
+    @Test
+    public void testForgedCallsDoNotUseUpRateLimit() throws Exception {
+        WebhookStepConfiguration.get().setTokenRateLimit(2);
+        String token = "test-token_" + name.getMethodName();
+        String path = "webhook-step/" + token;
+        WebhookRootAction.registerAuthToken(new WebhookToken(token, null, Secret.fromString("secret")));
+
+        for (int i = 0; i < 5; i++) {
+            FailingHttpStatusCodeException ex = assertThrows(
+                    FailingHttpStatusCodeException.class, () -> trigger_authenticated_webhook(path, "forged", "wrong"));
+            assertThat(ex.getStatusCode(), Matchers.is(403));
+        }
+
+        assertThat(trigger_authenticated_webhook(path, "first", "secret").getStatusCode(), isSuccessful());
+        assertThat(trigger_authenticated_webhook(path, "second", "secret").getStatusCode(), isSuccessful());
+    }
+
+    @Test
+    public void testCallsOverQueueDepthAreRejected() throws Exception {
+        WebhookStepConfiguration.get().setQueueDepth(1);
+        String path = "webhook-step/test-token_" + name.getMethodName();
+
+        assertThat(trigger_webhook(path, "first").getStatusCode(), isSuccessful());
+        FailingHttpStatusCodeException ex =
+                assertThrows(FailingHttpStatusCodeException.class, () -> trigger_webhook(path, "second"));
+
+        assertThat(ex.getStatusCode(), Matchers.is(429));
+        assertThat(ex.getResponse().getResponseHeaderValue("Result"), Matchers.is("QueueFull"));
+    }
+
+    @Test
+    public void testCallsOverStorageLimitAreRejected() throws Exception {
+        WebhookStepConfiguration.get().setEarlyDeliveryMaxSizeMb(1);
+        WebhookStepConfiguration.get().setSpoolThresholdKb(1);
+        String path = "webhook-step/test-token_" + name.getMethodName();
+
+        FailingHttpStatusCodeException ex = assertThrows(
+                FailingHttpStatusCodeException.class, () -> trigger_webhook(path, "x".repeat(2 * 1024 * 1024)));
+
+        assertThat(ex.getStatusCode(), Matchers.is(413));
+        assertThat(ex.getResponse().getResponseHeaderValue("Result"), Matchers.is("TooLargeToQueue"));
+        // the body is not kept on disk either
+        File[] spooled = WebhookRootAction.getSharedSpoolDir().listFiles();
+        assertThat(spooled, Matchers.emptyArray());
+    }
+
+    @Test
+    public void testRetriedDeliveryIsIgnored() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String webHook_ID = "test-token_" + name.getMethodName();
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\", "
+                + "deliveryIdHeader: 'X-GitHub-Delivery', queueDepth: 5)  \n"
+                + "def first = waitForWebhook(hook)  \n"
+                + "def second = waitForWebhook(hook)  \n"
+                + "echo \"data=${first},${second}\"  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+        while (WebhookRootAction.getRegistry().getRegistration(webHook_ID) == null) {
+            Thread.sleep(100);
+        }
+
+        JenkinsRule.WebClient wc = j.createWebClient();
+        URL url = new URL(j.getURL(), "webhook-step/" + webHook_ID);
+        wc.addRequestHeader("X-GitHub-Delivery", "1");
+        WebRequest first = new WebRequest(url, HttpMethod.POST);
+        first.setRequestBody("one");
+        int status = wc.getPage(first).getWebResponse().getStatusCode();
+
+        WebRequest retry = new WebRequest(url, HttpMethod.POST);
+        retry.setRequestBody("one again");
+        WebResponse replayed = wc.getPage(retry).getWebResponse();
+        assertThat(replayed.getStatusCode(), Matchers.is(status));
+        assertThat(replayed.getResponseHeaderValue("Duplicate-Delivery"), Matchers.is("true"));
+
+        wc.addRequestHeader("X-GitHub-Delivery", "2");
+        WebRequest second = new WebRequest(url, HttpMethod.POST);
+        second.setRequestBody("two");
+        assertThat(wc.getPage(second).getWebResponse().getStatusCode(), isSuccessful());
+
+        j.assertBuildStatusSuccess(j.waitForCompletion(r));
+        j.assertLogContains("data=one,two", r);
+    }
+
+    @Test
+    public void testStatusListsPendingWebhooks() throws Exception {
+        j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+        j.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.ADMINISTER)
+                .everywhere()
+                .to("admin")
+                .grant(Jenkins.READ)
+                .everywhere()
+                .to("user"));
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        String webHook_ID = "test-token_" + name.getMethodName();
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\", authToken: 'secret')  \n"
+                + "waitForWebhook(hook)  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+        while (WebhookRootAction.getRegistry().getWaiters(webHook_ID).isEmpty()) {
+            Thread.sleep(100);
+        }
+
+        JenkinsRule.WebClient user = j.createWebClient().login("user");
+        FailingHttpStatusCodeException ex =
+                assertThrows(FailingHttpStatusCodeException.class, () -> user.goTo("webhook-step/status", null));
+        assertThat(ex.getStatusCode(), Matchers.is(403));
+
+        String status = j.createWebClient()
+                .login("admin")
+                .goTo("webhook-step/status?limit=10", "application/json")
+                .getWebResponse()
+                .getContentAsString();
+        assertJsonEquals(
+                "{\"offset\":0,\"webhooks\":[{\"token\":\"" + webHook_ID + "\",\"run\":\"prj#1\","
+                        + "\"auth\":true,\"waiters\":1,\"queued\":0,\"queuedBytes\":0}]}",
+                status,
+                when(IGNORING_EXTRA_FIELDS));
+
+        r.doStop();
+        j.waitForCompletion(r);
+    }
+
+    @Test
+    public void testMetricsPublishedOverJmx() throws Exception {
+        WebResponse webResponse = trigger_webhook("webhook-step/" + "test-token_" + name.getMethodName(), "early");
+        assertThat(webResponse.getStatusCode(), isSuccessful());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName metrics = new ObjectName(WebhookMetrics.OBJECT_NAME);
+        CompositeData ingestion = (CompositeData) server.getAttribute(metrics, "IngestionMicros");
+        assertThat((Long) ingestion.get("count"), Matchers.greaterThanOrEqualTo(1L));
+        assertThat((Integer) server.getAttribute(metrics, "QueuedDeliveries"), Matchers.greaterThanOrEqualTo(1));
+    }
+
     @Test
     public void testWaitAuthHook_sendNoAuthToken() throws Exception {
         WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
@@ -283,6 +722,71 @@ public class WaitForWebhookTest {
         j.assertBuildStatus(Result.SUCCESS, r);
     }
 
+    @Test
+    public void testAuthTokenReleasedWhenRunCompletes() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+        URL url = this.getClass().getResource("/simple.json");
+
+        // build a webhook name that is unique for this test
+        String webHook_ID = "test-token_" + name.getMethodName();
+
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\", authToken: \"123\")  \n"
+                + "echo \"token=${hook.token}\"  \n";
+
+        FilePath contentFilePath = new FilePath(new File(url.getFile()));
+        String content = contentFilePath.readToString();
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+        j.waitForCompletion(r);
+        j.assertBuildStatus(Result.SUCCESS, r);
+
+        // the run never waited on the webhook, its auth token must not outlive it
+        WebResponse webResponse = trigger_webhook("webhook-step/" + webHook_ID, content);
+        assertThat(
+                "Triggering the released webhook should not be rejected",
+                webResponse.getStatusCode(),
+                Matchers.is(202));
+    }
+
+    @Test
+    public void testWaitSignedHook() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+        URL url = this.getClass().getResource("/simple.json");
+
+        // build a webhook name that is unique for this test
+        String webHook_ID = "test-token_" + name.getMethodName();
+
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID
+                + "\", signatureSecret: \"s3cr3t\")  \n"
+                + "def data = waitForWebhook(webhookToken: hook)  \n"
+                + "echo \"${data}\"  \n";
+
+        FilePath contentFilePath = new FilePath(new File(url.getFile()));
+        String content = contentFilePath.readToString();
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+
+        j.assertBuildStatus(null, r);
+
+        final FailingHttpStatusCodeException unsigned = assertThrows(
+                FailingHttpStatusCodeException.class, () -> trigger_webhook("webhook-step/" + webHook_ID, content));
+        assertThat("An unsigned delivery should be rejected", unsigned.getStatusCode(), Matchers.is(403));
+
+        final FailingHttpStatusCodeException misSigned = assertThrows(
+                FailingHttpStatusCodeException.class,
+                () -> trigger_signed_webhook("webhook-step/" + webHook_ID, content, "wrong"));
+        assertThat("A mis-signed delivery should be rejected", misSigned.getStatusCode(), Matchers.is(403));
+
+        WebResponse webResponse = trigger_signed_webhook("webhook-step/" + webHook_ID, content, "s3cr3t");
+        assertThat("Triggering the signed webhook should succeed", webResponse.getStatusCode(), isSuccessful());
+
+        j.waitForCompletion(r);
+        j.assertBuildStatus(Result.SUCCESS, r);
+        j.assertLogContains("\"action\":\"done\"", r);
+    }
+
     @Test
     public void testLargeDataMessage() throws Exception {
         WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
@@ -323,6 +827,76 @@ public class WaitForWebhookTest {
         assertJsonEquals(content, output, when(IGNORING_ARRAY_ORDER));
     }
 
+    @Test
+    public void testPayloadOverLimitIsRejected() throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+
+        // build a webhook name that is unique for this test
+        String webHook_ID = "test-token_" + name.getMethodName();
+
+        URL largeUrl = this.getClass().getResource("/large.json");
+        String large = new FilePath(new File(largeUrl.getFile())).readToString();
+        URL simpleUrl = this.getClass().getResource("/simple.json");
+        String simple = new FilePath(new File(simpleUrl.getFile())).readToString();
+
+        String pipelineCode = "def hook = registerWebhook(token: \"" + webHook_ID + "\", maxPayloadSizeKb: 1)  \n"
+                + "def data = waitForWebhook(webhookToken: hook)  \n"
+                + "echo \"${data}\"  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+
+        j.assertBuildStatus(null, r);
+
+        final FailingHttpStatusCodeException ex = assertThrows(
+                FailingHttpStatusCodeException.class, () -> trigger_webhook("webhook-step/" + webHook_ID, large));
+        assertThat("A body over the webhook limit should be rejected", ex.getStatusCode(), Matchers.is(413));
+
+        WebResponse webResponse = trigger_webhook("webhook-step/" + webHook_ID, simple);
+        assertThat("Triggering the webhook should succeed", webResponse.getStatusCode(), isSuccessful());
+
+        j.waitForCompletion(r);
+        j.assertBuildStatus(Result.SUCCESS, r);
+        j.assertLogContains("\"action\":\"done\"", r);
+    }
+
+    @Test
+    public void testSpooledDataMessage() throws Exception {
+        WebhookStepConfiguration.get().setSpoolThresholdKb(1);
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+        URL url = this.getClass().getResource("/large.json");
+
+        // build a webhook name that is unique for this test
+        String webHook_ID = "test-token_" + name.getMethodName();
+
+        FilePath contentFilePath = new FilePath(new File(url.getFile()));
+        String content = contentFilePath.readToString();
+
+        String pipelineCode = "node {  \n" + "   def hook = registerWebhook(token: \""
+                + webHook_ID + "\")  \n" + "   echo \"token=${hook.token}\"  \n"
+                + "   def data = waitForWebhook(hook)\n"
+                + "   writeFile(file: 'large.json', text: data)\n"
+                + "}  \n";
+
+        p.setDefinition(new CpsFlowDefinition(pipelineCode, true));
+        WorkflowRun r = p.scheduleBuild2(0).waitForStart();
+
+        j.assertBuildStatus(null, r);
+
+        WebResponse webResponse = trigger_webhook("webhook-step/" + webHook_ID, content);
+        assertThat("Triggering the webhook should succeed", webResponse.getStatusCode(), isSuccessful());
+
+        j.waitForCompletion(r);
+        j.assertBuildStatus(Result.SUCCESS, r);
+
+        // the body was larger than the threshold and went to the build directory, until it was read back
+        File[] spooled = new File(r.getRootDir(), "webhook-step").listFiles();
+        assertThat(spooled, Matchers.emptyArray());
+
+        String output = j.jenkins.getWorkspaceFor(p).child("large.json").readToString();
+        assertJsonEquals(content, output, when(IGNORING_ARRAY_ORDER));
+    }
+
     /**
      * Sends a json file to the specified url to trigger the webhook
      * @param webhook_path the path to the webhook
@@ -356,6 +930,28 @@ public class WaitForWebhookTest {
         return (wc.getPage(webRequest).getWebResponse());
     }
 
+    /**
+     * Sends a json file to the specified url, signed like GitHub does, to trigger the webhook
+     * @param webhook_path the path to the webhook
+     * @param content the json payload
+     * @param secret the secret to sign the payload with
+     * @return the webResponse from the webhook
+     */
+    public WebResponse trigger_signed_webhook(String webhook_path, String content, String secret) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        String signature = HexFormat.of().formatHex(mac.doFinal(content.getBytes(StandardCharsets.UTF_8)));
+
+        JenkinsRule.WebClient wc = j.createWebClient();
+        URL URLtoCall = new URL(j.getURL(), webhook_path);
+        wc.addRequestHeader("content-type", "application/json; charset=UTF-8");
+        wc.addRequestHeader("X-Hub-Signature-256", "sha256=" + signature);
+        WebRequest webRequest = new WebRequest(URLtoCall, HttpMethod.POST);
+        webRequest.setCharset(StandardCharsets.UTF_8);
+        webRequest.setRequestBody(content);
+        return (wc.getPage(webRequest).getWebResponse());
+    }
+
     private AnyOf<Integer> isSuccessful() {
         return Matchers.anyOf(Matchers.is(200), Matchers.is(202));
     }
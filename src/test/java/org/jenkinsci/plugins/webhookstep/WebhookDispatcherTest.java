@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class WebhookDispatcherTest {
+
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testTasksOfATokenRunInOrder() throws Exception {
+        WebhookDispatcher dispatcher = new WebhookDispatcher(4, 16, pool);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1000);
+
+        for (int i = 0; i < 1000; i++) {
+            int task = i;
+            dispatcher.dispatch("token", () -> {
+                order.add(task);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        // the last task is counted once it returned
+        awaitDispatched(dispatcher, 1000);
+    }
+
+    @Test
+    public void testLaneKeepsRunningAfterAnError() throws Exception {
+        WebhookDispatcher dispatcher = new WebhookDispatcher(1, 16, command -> pool.execute(() -> {
+            try {
+                command.run();
+            } catch (AssertionError e) {
+                // stands for an Error ending the pool thread
+            }
+        }));
+        CountDownLatch done = new CountDownLatch(1);
+
+        dispatcher.dispatch("token", () -> {
+            throw new AssertionError("failed");
+        });
+        dispatcher.dispatch("token", done::countDown);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        awaitDispatched(dispatcher, 2);
+        assertEquals(0, dispatcher.getQueued());
+    }
+
+    @Test
+    public void testFullLaneThrottlesSubmitter() throws Exception {
+        WebhookDispatcher dispatcher = new WebhookDispatcher(1, 1, pool);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        dispatcher.dispatch("token", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        assertEquals(1, dispatcher.getQueued());
+
+        Thread submitter = new Thread(() -> dispatcher.dispatch("token", done::countDown));
+        submitter.start();
+        while (dispatcher.getThrottled() == 0) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        submitter.join(10_000);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    private static void awaitDispatched(WebhookDispatcher dispatcher, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (dispatcher.getDispatched() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, dispatcher.getDispatched());
+    }
+}
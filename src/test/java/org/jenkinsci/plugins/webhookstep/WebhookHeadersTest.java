@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+public class WebhookHeadersTest {
+
+    private final WebhookHeaders headers = WebhookHeaders.of(new String[] {
+        "X-Event", "push", "Accept", "text/plain", "accept", "application/json", "Content-Type", "application/json"
+    });
+
+    @Test
+    public void testNamesAreCaseInsensitive() {
+        assertEquals("push", headers.getFirst("x-event"));
+        assertEquals("application/json", headers.toMap().get("CONTENT-TYPE"));
+        assertNull(headers.getFirst("X-Missing"));
+    }
+
+    @Test
+    public void testRepeatedHeadersAreKept() {
+        assertEquals(List.of("text/plain", "application/json"), headers.getAll("Accept"));
+        // the map view keeps the first value, like HttpServletRequest.getHeader
+        assertEquals("text/plain", headers.toMap().get("accept"));
+        assertEquals(4, headers.size());
+    }
+
+    @Test
+    public void testSelect() {
+        WebhookHeaders selected = headers.select(Set.of("ACCEPT"));
+        assertEquals(2, selected.size());
+        assertEquals(Map.of("Accept", "text/plain"), Map.copyOf(selected.toMap()));
+        assertSame(headers, headers.select(null));
+        assertEquals(0, headers.select(Set.of()).size());
+    }
+}
@@ -0,0 +1,160 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.util.Secret;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WebhookJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testReplaysRegistrationsAndDeliveries() throws Exception {
+        File file = new File(tmp.getRoot(), "journal");
+        WebhookRegistry before = new WebhookRegistry();
+        WebhookJournal journal = WebhookJournal.open(before, file);
+        before.register("token", new WebhookRegistration("prj#1", null).withQueueDepth(3).withMaxPayloadSize(2048));
+        byte[] body = "early".getBytes(StandardCharsets.UTF_8);
+        WebhookHeaders headers = WebhookHeaders.of(Map.of("X-Event", "push"));
+        before.claimOrPark("token", new WebhookResponse(body, "UTF-8").withHeaders(headers));
+        journal.close();
+
+        WebhookRegistry after = new WebhookRegistry();
+        WebhookJournal.open(after, file).close();
+
+        WebhookRegistration registration = after.getRegistration("token");
+        assertNotNull(registration);
+        assertEquals("prj#1", registration.runId);
+        assertEquals(3, registration.getQueueDepth());
+        assertEquals(2048, registration.getMaxPayloadSize());
+
+        WebhookResponse response = after.getAlreadyPosted().take("token");
+        assertEquals("early", response.getContent());
+        assertEquals("push", response.getHeaders().get("X-Event"));
+    }
+
+    @Test
+    public void testRunsThatNoLongerExistAreLeftOutOfTheJournal() throws Exception {
+        File file = new File(tmp.getRoot(), "journal");
+        WebhookRegistry before = new WebhookRegistry();
+        WebhookJournal journal = WebhookJournal.open(before, file);
+        before.register("deleted-token", new WebhookRegistration("prj#1", null));
+        before.claimOrPark("deleted-token", WebhookRegistryTest.response("early"));
+        before.register("kept-token", new WebhookRegistration("prj#2", null));
+        journal.close();
+
+        WebhookRegistry after = new WebhookRegistry();
+        journal = WebhookJournal.open(after, file);
+        assertEquals(List.of("prj#1"), after.releaseMissingRuns("prj#2"::equals));
+        journal.close();
+
+        WebhookRegistry restarted = new WebhookRegistry();
+        WebhookJournal.open(restarted, file).close();
+        assertNull(restarted.getRegistration("deleted-token"));
+        assertEquals(0, restarted.getAlreadyPosted().size());
+        assertNotNull(restarted.getRegistration("kept-token"));
+
+        // the journal was compacted when it was replayed
+        String written = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(written.contains("deleted-token"));
+    }
+
+    @Test
+    public void testAuthTokenIsReplayedAsSaltedDigest() throws Exception {
+        File file = new File(tmp.getRoot(), "journal");
+        WebhookRegistry before = new WebhookRegistry();
+        WebhookJournal journal = WebhookJournal.open(before, file);
+        Secret authToken = Secret.fromString("s3cret");
+        before.register("token", new WebhookRegistration("prj#1", null).withSecretAuthToken(authToken));
+        journal.close();
+
+        // only the salt and the digest are written, never the token itself
+        String written = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(written.contains("s3cret"));
+
+        WebhookRegistry after = new WebhookRegistry();
+        WebhookJournal.open(after, file).close();
+
+        WebhookRegistration registration = after.getRegistration("token");
+        assertTrue(registration.hasAuthToken());
+        assertTrue(registration.checkAuthToken("s3cret"));
+        assertFalse(registration.checkAuthToken("wrong"));
+        assertFalse(registration.checkAuthToken(null));
+    }
+
+    @Test
+    public void testRemovedStateIsNotReplayed() throws Exception {
+        File file = new File(tmp.getRoot(), "journal");
+        WebhookRegistry before = new WebhookRegistry();
+        WebhookJournal journal = WebhookJournal.open(before, file);
+        before.register("released", new WebhookRegistration("prj#1", null));
+        before.claimOrPark("released", WebhookRegistryTest.response("dropped"));
+        before.claimOrPark("taken", WebhookRegistryTest.response("first"));
+        before.claimOrPark("taken", WebhookRegistryTest.response("second"));
+        assertTrue(before.takeOrWait(WebhookRegistryTest.execution("taken")));
+        before.releaseRun("prj#1");
+        journal.close();
+
+        WebhookRegistry after = new WebhookRegistry();
+        WebhookJournal.open(after, file).close();
+
+        assertNull(after.getRegistration("released"));
+        assertNull(after.getAlreadyPosted().take("released"));
+        assertEquals("second", after.getAlreadyPosted().take("taken").getContent());
+        assertNull(after.getAlreadyPosted().take("taken"));
+    }
+
+    @Test
+    public void testCompactionKeepsLiveState() throws Exception {
+        File file = new File(tmp.getRoot(), "journal");
+        WebhookRegistry before = new WebhookRegistry();
+        WebhookJournal journal = WebhookJournal.open(before, file);
+        for (int i = 0; i < 1000; i++) {
+            before.register("token", new WebhookRegistration("prj#" + i, null));
+        }
+        journal.flush();
+        long appended = file.length();
+        journal.compact();
+        assertTrue(file.length() < appended / 100);
+        journal.close();
+
+        WebhookRegistry after = new WebhookRegistry();
+        WebhookJournal.open(after, file).close();
+        assertEquals("prj#999", after.getRegistration("token").runId);
+    }
+
+    @Test
+    public void testTornRecordEndsReplay() throws Exception {
+        File file = new File(tmp.getRoot(), "journal");
+        WebhookRegistry before = new WebhookRegistry();
+        WebhookJournal journal = WebhookJournal.open(before, file);
+        before.claimOrPark("token", WebhookRegistryTest.response("complete"));
+        journal.flush();
+        before.claimOrPark("token", WebhookRegistryTest.response("torn"));
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        WebhookRegistry after = new WebhookRegistry();
+        WebhookJournal.open(after, file).close();
+
+        assertEquals("complete", after.getAlreadyPosted().take("token").getContent());
+        assertNull(after.getAlreadyPosted().take("token"));
+        assertFalse(after.isKnown("token"));
+    }
+}
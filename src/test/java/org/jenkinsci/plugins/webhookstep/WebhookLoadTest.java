@@ -0,0 +1,132 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import hudson.model.queue.QueueTaskFuture;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Parks many pipelines on their own webhook and calls all of them at once from many threads. Skipped unless
+ * enabled, for example with {@code mvn test -Dtest=WebhookLoadTest -Dwebhook.load.pipelines=2000
+ * -Dwebhook.load.threads=32 -Djenkins.test.timeout=900}.
+ */
+public class WebhookLoadTest {
+
+    private static final int PIPELINES = Integer.getInteger("webhook.load.pipelines", 0);
+    private static final int THREADS = Integer.getInteger("webhook.load.threads", 16);
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void testConcurrentDeliveries() throws Exception {
+        assumeTrue("Enable with -Dwebhook.load.pipelines=<count>", PIPELINES > 0);
+
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "prj");
+        p.setConcurrentBuild(true);
+        p.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("TOKEN", "")));
+        p.setDefinition(new CpsFlowDefinition(
+                "def data = waitForWebhook(registerWebhook(token: params.TOKEN))\n" + "echo \"received=${data}\"\n",
+                true));
+
+        List<QueueTaskFuture<WorkflowRun>> builds = new ArrayList<>(PIPELINES);
+        for (int i = 0; i < PIPELINES; i++) {
+            builds.add(p.scheduleBuild2(0, new ParametersAction(new StringParameterValue("TOKEN", token(i)))));
+        }
+        for (int i = 0; i < PIPELINES; i++) {
+            while (WebhookRootAction.getRegistry().getWaiters(token(i)).isEmpty()) {
+                Thread.sleep(100);
+            }
+        }
+
+        HttpClient client = HttpClient.newHttpClient();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        long[] latencies = new long[PIPELINES];
+        List<Future<Integer>> statuses = new ArrayList<>(PIPELINES);
+        long start = System.nanoTime();
+        for (int i = 0; i < PIPELINES; i++) {
+            int call = i;
+            statuses.add(pool.submit(() -> {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(j.getURL() + "webhook-step/" + token(call)))
+                        .POST(HttpRequest.BodyPublishers.ofString(payload(call)))
+                        .build();
+                long sent = System.nanoTime();
+                int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                latencies[call] = System.nanoTime() - sent;
+                return status;
+            }));
+        }
+        for (Future<Integer> status : statuses) {
+            assertTrue("Call rejected with " + status.get(), status.get() == 200 || status.get() == 202);
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        Set<String> received = new HashSet<>();
+        for (QueueTaskFuture<WorkflowRun> build : builds) {
+            WorkflowRun run = j.assertBuildStatusSuccess(build);
+            String token = (String) run.getAction(ParametersAction.class)
+                    .getParameter("TOKEN")
+                    .getValue();
+            String log = JenkinsRule.getLog(run);
+            assertEquals("Deliveries received by " + run, 1, log.split("received=", -1).length - 1);
+            assertTrue("Wrong delivery for " + token, log.contains("received=" + payload(token) + "\n"));
+            assertTrue("Delivered twice: " + token, received.add(token));
+        }
+        // Every call was handed to its pipeline, none is left waiting for a later wait
+        assertEquals(0, WebhookRootAction.getRegistry().getAlreadyPosted().size());
+
+        Arrays.sort(latencies);
+        System.out.printf(
+                "%d deliveries from %d threads in %d ms, %.0f per second, latency p50 %.2f ms, p95 %.2f ms,"
+                        + " p99 %.2f ms, max %.2f ms%n",
+                PIPELINES,
+                THREADS,
+                TimeUnit.NANOSECONDS.toMillis(elapsed),
+                PIPELINES * 1e9 / elapsed,
+                percentile(latencies, 0.5),
+                percentile(latencies, 0.95),
+                percentile(latencies, 0.99),
+                latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)] / 1e6;
+    }
+
+    private static String token(int i) {
+        return "load-" + i;
+    }
+
+    private static String payload(int i) {
+        return payload(token(i));
+    }
+
+    private static String payload(String token) {
+        return "payload-of-" + token;
+    }
+}
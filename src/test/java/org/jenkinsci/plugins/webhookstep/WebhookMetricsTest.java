@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import java.util.Map;
+import org.junit.Test;
+
+public class WebhookMetricsTest {
+
+    private final WebhookRegistry registry = new WebhookRegistry();
+    private final WebhookMetrics metrics = new WebhookMetrics(registry);
+
+    @Test
+    public void testHistogramSummary() {
+        WebhookMetrics.Histogram histogram = new WebhookMetrics.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        WebhookMetricsMXBean.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50, snapshot.getMean());
+        assertEquals(100, snapshot.getMax());
+        // percentiles are reported as the upper bound of their bucket
+        assertEquals(63, snapshot.getP50());
+        assertEquals(100, snapshot.getP99());
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        WebhookMetricsMXBean.Snapshot snapshot = new WebhookMetrics.Histogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getP50());
+    }
+
+    @Test
+    public void testGaugesReadTheRegistry() {
+        registry.takeOrWait(WebhookRegistryTest.execution("waited"));
+        registry.takeOrWait(WebhookRegistryTest.execution("waited"));
+        registry.claimOrPark("early", WebhookRegistryTest.response("content"));
+
+        assertEquals(2, metrics.getActiveWaiters());
+        assertEquals(1, metrics.getQueuedDeliveries());
+    }
+
+    @Test
+    public void testResponsesAreCountedByStatus() {
+        metrics.recordResponse(202, 1000);
+        metrics.recordResponse(202, 3000);
+        metrics.recordResponse(403, 1000);
+        metrics.recordAuthFailure();
+
+        assertEquals(Map.of("202", 2L, "403", 1L), metrics.getResponses());
+        assertEquals(1, metrics.getAuthFailures());
+        assertEquals(3, metrics.getIngestionMicros().getCount());
+    }
+
+    @Test
+    public void testEveryResponseStatusIsPublished() {
+        for (int status : WebhookMetrics.RESPONSE_STATUSES) {
+            metrics.recordResponse(status, 1000);
+        }
+
+        Map<String, Metric> gauges = WebhookMetricProvider.getMetricSet(metrics).getMetrics();
+        for (int status : WebhookMetrics.RESPONSE_STATUSES) {
+            Gauge<?> gauge = (Gauge<?>) gauges.get("jenkins.webhook-step.responses." + status);
+            assertNotNull(String.valueOf(status), gauge);
+            assertEquals(1L, gauge.getValue());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import hudson.util.Secret;
+import org.junit.Test;
+
+public class WebhookRegistrationTest {
+
+    private final WebhookRegistration registration =
+            new WebhookRegistration(null, null).withSecretAuthToken(Secret.fromString("s3cret"));
+
+    @Test
+    public void testMissingAuthTokenIsRejected() {
+        assertTrue(registration.hasAuthToken());
+        assertFalse(registration.checkAuthToken(null));
+        assertFalse(registration.checkAuthToken(""));
+    }
+
+    @Test
+    public void testWrongAuthTokenIsRejected() {
+        assertFalse(registration.checkAuthToken("wrong"));
+        assertFalse(registration.checkAuthToken("s3cret "));
+        assertFalse(registration.checkAuthToken("S3CRET"));
+    }
+
+    @Test
+    public void testCorrectAuthTokenIsAccepted() {
+        assertTrue(registration.checkAuthToken("s3cret"));
+    }
+
+    @Test
+    public void testWithoutAuthTokenAnyCallIsAccepted() {
+        WebhookRegistration open = new WebhookRegistration(null, null);
+        assertFalse(open.hasAuthToken());
+        assertTrue(open.checkAuthToken(null));
+        assertTrue(open.checkAuthToken("anything"));
+    }
+
+    @Test
+    public void testAuthTokenCanBeRemoved() {
+        registration.withSecretAuthToken(null);
+        assertFalse(registration.hasAuthToken());
+        assertTrue(registration.checkAuthToken(null));
+    }
+
+    @Test
+    public void testCopyKeepsAuthTokenButNotRecentDeliveries() {
+        WebhookRegistration copy = registration.withQueueDepth(3).copy();
+
+        assertTrue(copy.checkAuthToken("s3cret"));
+        assertFalse(copy.checkAuthToken("wrong"));
+        assertEquals(3, copy.getQueueDepth());
+        assertNotSame(registration.getRecentDeliveries(), copy.getRecentDeliveries());
+    }
+}
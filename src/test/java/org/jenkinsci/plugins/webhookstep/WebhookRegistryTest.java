@@ -0,0 +1,280 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class WebhookRegistryTest {
+
+    private final WebhookRegistry registry = new WebhookRegistry();
+
+    @Test
+    public void testDeliveryBeforeWait() {
+        assertFalse(registry.claimOrPark("token", response("early")).isClaimed());
+        assertTrue(registry.takeOrWait(execution("token")));
+        // the delivery is consumed by the first wait
+        assertFalse(registry.takeOrWait(execution("token")));
+    }
+
+    @Test
+    public void testWaitBeforeDelivery() {
+        WaitForWebhookExecution exec = execution("token");
+
+        assertFalse(registry.takeOrWait(exec));
+        assertEquals(List.of(exec), registry.claimOrPark("token", response("late")).completed);
+        // the waiter is consumed by the first delivery
+        assertFalse(registry.claimOrPark("token", response("late")).isClaimed());
+    }
+
+    @Test
+    public void testRemoveOnlyRemovesOwnWaiter() {
+        WaitForWebhookExecution first = execution("token");
+        WaitForWebhookExecution second = execution("token");
+
+        registry.takeOrWait(first);
+        registry.takeOrWait(second);
+        registry.remove(first);
+
+        assertEquals(List.of(second), registry.claimOrPark("token", response("content")).completed);
+    }
+
+    @Test
+    public void testWaitersServedInOrder() {
+        WaitForWebhookExecution first = execution("token");
+        WaitForWebhookExecution second = execution("token");
+
+        registry.takeOrWait(first);
+        registry.takeOrWait(second);
+
+        assertEquals(List.of(first), registry.claimOrPark("token", response("one")).completed);
+        assertEquals(List.of(second), registry.claimOrPark("token", response("two")).completed);
+    }
+
+    @Test
+    public void testBroadcastCompletesAllWaiters() {
+        registry.register("topic", new WebhookRegistration("prj#1", null).withBroadcast(true));
+        WaitForWebhookExecution first = execution("topic");
+        WaitForWebhookExecution second = execution("topic");
+        registry.takeOrWait(first);
+        registry.takeOrWait(second);
+
+        WebhookRegistry.Claim claim = registry.claimOrPark("topic", response("refreshed"));
+
+        assertEquals(List.of(first, second), claim.completed);
+        // nobody waits anymore, the next delivery is kept for a later wait
+        assertFalse(registry.claimOrPark("topic", response("again")).isClaimed());
+    }
+
+    @Test
+    public void testBroadcastTokenFromWaiters() {
+        WebhookToken topic = new WebhookToken("topic", null, null, true);
+        WaitForWebhookExecution first = new WaitForWebhookExecution(null, new WaitForWebhookStep(topic));
+        WaitForWebhookExecution second = new WaitForWebhookExecution(null, new WaitForWebhookStep(topic));
+        registry.takeOrWait(first);
+        registry.takeOrWait(second);
+
+        assertEquals(List.of(first, second), registry.claimOrPark("topic", response("refreshed")).completed);
+    }
+
+    @Test
+    public void testReleaseRun() {
+        registry.register("released", new WebhookRegistration("prj#1", null));
+        registry.register("reused", new WebhookRegistration("prj#1", null));
+        registry.register("reused", new WebhookRegistration("prj#2", null));
+        registry.claimOrPark("released", response("content"));
+        registry.claimOrPark("reused", response("content"));
+
+        registry.releaseRun("prj#1");
+
+        assertFalse(registry.takeOrWait(execution("released")));
+        // the token registered again by another run is left alone
+        assertTrue(registry.takeOrWait(execution("reused")));
+    }
+
+    @Test
+    public void testRegisterAllTracksRuns() {
+        Map<String, WebhookRegistration> registrations = new LinkedHashMap<>();
+        registrations.put("first", new WebhookRegistration("prj#1", null));
+        registrations.put("second", new WebhookRegistration("prj#1", null));
+        registrations.put("other", new WebhookRegistration("prj#2", null));
+        registry.registerAll(registrations);
+
+        assertTrue(registry.isKnown("second"));
+        registry.releaseRun("prj#1");
+
+        assertFalse(registry.isKnown("first"));
+        assertFalse(registry.isKnown("second"));
+        assertTrue(registry.isKnown("other"));
+    }
+
+    @Test
+    public void testBatchCollectsUntilFull() {
+        WaitForWebhookStep step = new WaitForWebhookStep(new WebhookToken("token", null, null));
+        step.setMaxEvents(3);
+        WaitForWebhookExecution exec = new WaitForWebhookExecution(null, step);
+
+        registry.claimOrPark("token", response("first"));
+        assertFalse(registry.takeOrWait(exec));
+
+        WebhookRegistry.Claim second = registry.claimOrPark("token", response("second"));
+        assertEquals(List.of(exec), second.accepted);
+        assertTrue(second.completed.isEmpty());
+
+        WebhookRegistry.Claim third = registry.claimOrPark("token", response("third"));
+        assertEquals(List.of(exec), third.completed);
+        // the completed batch no longer waits
+        assertFalse(registry.claimOrPark("token", response("fourth")).isClaimed());
+    }
+
+    @Test
+    public void testAnyCompletesWithFirstToken() {
+        WaitForAnyWebhookExecution exec = new WaitForAnyWebhookExecution(
+                null,
+                new WaitForAnyWebhookStep(
+                        List.of(new WebhookToken("success", null, null), new WebhookToken("failure", null, null))));
+
+        assertFalse(registry.takeOrWait(exec));
+        WebhookRegistry.Claim claim = registry.claimOrPark("failure", response("failed"));
+        assertEquals(List.of(exec), claim.completed);
+        // the other token no longer hands deliveries to the completed execution
+        assertFalse(registry.claimOrPark("success", response("late")).isClaimed());
+        assertTrue(registry.takeOrWait(execution("success")));
+    }
+
+    @Test
+    public void testAnyTakesEarlyDelivery() {
+        registry.claimOrPark("failure", response("failed"));
+        WaitForAnyWebhookExecution exec = new WaitForAnyWebhookExecution(
+                null,
+                new WaitForAnyWebhookStep(
+                        List.of(new WebhookToken("success", null, null), new WebhookToken("failure", null, null))));
+
+        assertTrue(registry.takeOrWait(exec));
+        assertFalse(registry.claimOrPark("success", response("late")).isClaimed());
+    }
+
+    @Test
+    public void testAnyCompletedMeanwhileLeavesEarlyDeliveries() {
+        registry.claimOrPark("failure", response("failed"));
+        WaitForAnyWebhookExecution exec = new WaitForAnyWebhookExecution(
+                null,
+                new WaitForAnyWebhookStep(
+                        List.of(new WebhookToken("success", null, null), new WebhookToken("failure", null, null))));
+        // completed through the first token while it was about to visit the second one
+        exec.offer("success", response("succeeded"));
+
+        assertFalse(registry.takeOrWait(exec));
+        assertEquals(1, registry.getAlreadyPosted().size("failure"));
+        // nor was it registered on any of its tokens
+        assertFalse(registry.claimOrPark("success", response("late")).isClaimed());
+        assertEquals("failed", registry.getAlreadyPosted().take("failure").getContent());
+    }
+
+    @Test
+    public void testAnyRejectsSecondDelivery() {
+        WaitForAnyWebhookExecution exec = new WaitForAnyWebhookExecution(
+                null, new WaitForAnyWebhookStep(List.of(new WebhookToken("token", null, null))));
+
+        assertEquals(WebhookWaiter.Offer.COMPLETE, exec.offer("token", response("first")));
+        assertEquals(WebhookWaiter.Offer.REJECTED, exec.offer("token", response("second")));
+    }
+
+    @Test
+    public void testHeadersAreOnlyKeptForWaitersReturningThem() {
+        WebhookResponse posted = new WebhookResponse("content", Map.of("X-Event", "push", "X-Other", "ignored"));
+        WaitForWebhookStep withHeaders = new WaitForWebhookStep(new WebhookToken("token", null, null));
+        withHeaders.setWithHeaders(true);
+        withHeaders.setHeaders(List.of("x-event"));
+        WaitForWebhookExecution selecting = new WaitForWebhookExecution(null, withHeaders);
+        WaitForWebhookExecution contentOnly = execution("token");
+
+        registry.takeOrWait(contentOnly);
+        registry.takeOrWait(selecting);
+        List<String> read = new ArrayList<>();
+        registry.claimOrPark("token", posted, names -> {
+            read.add(String.valueOf(names));
+            return posted.getRequestHeaders().select(names);
+        });
+        registry.claimOrPark("token", posted, names -> {
+            read.add(String.valueOf(names));
+            return posted.getRequestHeaders().select(names);
+        });
+
+        // neither waiter wants all the headers
+        assertEquals(List.of("[]", "[x-event]"), read);
+    }
+
+    @Test
+    public void testFilteredDeliveryIsDropped() {
+        WaitForWebhookStep step = new WaitForWebhookStep(new WebhookToken("token", null, null));
+        step.setHeaderFilter(List.of("X-Event=push"));
+        WaitForWebhookExecution exec = new WaitForWebhookExecution(null, step);
+        registry.takeOrWait(exec);
+
+        WebhookRegistry.Claim ignored =
+                registry.claimOrPark("token", new WebhookResponse("", Map.of("X-Event", "ping")));
+        assertTrue(ignored.filtered);
+        assertFalse(ignored.isClaimed());
+
+        WebhookRegistry.Claim claim = registry.claimOrPark("token", new WebhookResponse("", Map.of("X-Event", "push")));
+        assertEquals(List.of(exec), claim.completed);
+        // the ignored delivery was not kept either
+        assertFalse(registry.takeOrWait(execution("token")));
+    }
+
+    @Test
+    public void testFilteredWaiterIsSkipped() {
+        WaitForWebhookStep step = new WaitForWebhookStep(new WebhookToken("token", null, null));
+        step.setJsonFilter(List.of("$.action=opened"));
+        WaitForWebhookExecution filtering = new WaitForWebhookExecution(null, step);
+        WaitForWebhookExecution other = execution("token");
+        registry.takeOrWait(filtering);
+        registry.takeOrWait(other);
+
+        assertEquals(List.of(other), registry.claimOrPark("token", response("{\"action\":\"closed\"}")).completed);
+        assertEquals(List.of(filtering), registry.claimOrPark("token", response("{\"action\":\"opened\"}")).completed);
+    }
+
+    @Test
+    public void testEarlyDeliveriesAreFilteredWhenTaken() {
+        registry.claimOrPark("token", response("{\"action\":\"closed\"}"));
+        registry.claimOrPark("token", response("{\"action\":\"opened\"}"));
+        WaitForWebhookStep step = new WaitForWebhookStep(new WebhookToken("token", null, null));
+        step.setJsonFilter(List.of("$.action=opened"));
+
+        assertTrue(registry.takeOrWait(new WaitForWebhookExecution(null, step)));
+        // the delivery filtered out was dropped
+        assertFalse(registry.takeOrWait(execution("token")));
+    }
+
+    @Test
+    public void testFilteredBatchTakesEveryMatchingEarlyDelivery() {
+        registry.claimOrPark("token", response("{\"action\":\"opened\"}"));
+        registry.claimOrPark("token", response("{\"action\":\"closed\"}"));
+        registry.claimOrPark("token", response("{\"action\":\"opened\"}"));
+        registry.claimOrPark("token", response("{\"action\":\"closed\"}"));
+        WaitForWebhookStep step = new WaitForWebhookStep(new WebhookToken("token", null, null));
+        step.setJsonFilter(List.of("$.action=opened"));
+        step.setMaxEvents(3);
+        WaitForWebhookExecution exec = new WaitForWebhookExecution(null, step);
+
+        assertFalse(registry.takeOrWait(exec));
+        assertEquals(0, registry.getAlreadyPosted().size("token"));
+        assertEquals(List.of(exec), registry.claimOrPark("token", response("{\"action\":\"opened\"}")).completed);
+    }
+
+    static WaitForWebhookExecution execution(String token) {
+        return new WaitForWebhookExecution(null, new WaitForWebhookStep(new WebhookToken(token, null, null)));
+    }
+
+    static WebhookResponse response(String content) {
+        return new WebhookResponse(content, Collections.emptyMap());
+    }
+}
@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+public class WebhookStatusTest {
+
+    private final WebhookRegistry registry = new WebhookRegistry();
+
+    @Test
+    public void testEntries() throws IOException {
+        registry.register("registered", new WebhookRegistration("prj#1", null));
+        registry.takeOrWait(WebhookRegistryTest.execution("waited"));
+        registry.claimOrPark("posted", WebhookRegistryTest.response("early"));
+
+        JsonNode page = write(0, 10);
+
+        assertEquals(3, page.get("webhooks").size());
+        assertFalse(page.has("next"));
+        JsonNode registered = find(page, "registered");
+        assertEquals("prj#1", registered.get("run").asText());
+        assertFalse(registered.get("auth").asBoolean());
+        assertEquals(0, registered.get("waiters").asInt());
+        assertEquals(1, find(page, "waited").get("waiters").asInt());
+        JsonNode posted = find(page, "posted");
+        assertEquals(1, posted.get("queued").asInt());
+        assertTrue(posted.get("queuedBytes").asLong() > 0);
+    }
+
+    @Test
+    public void testPaging() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            registry.register("token-" + i, new WebhookRegistration(null, null));
+        }
+
+        Set<String> tokens = new HashSet<>();
+        JsonNode first = write(0, 2);
+        JsonNode second = write(first.get("next").asInt(), 2);
+        JsonNode last = write(second.get("next").asInt(), 2);
+        for (JsonNode page : new JsonNode[] {first, second, last}) {
+            page.get("webhooks").forEach(entry -> tokens.add(entry.get("token").asText()));
+        }
+
+        assertEquals(1, last.get("webhooks").size());
+        assertFalse(last.has("next"));
+        assertEquals(5, tokens.size());
+    }
+
+    private JsonNode write(int offset, int limit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebhookStatus.write(registry, out, offset, limit, System.currentTimeMillis());
+        return new ObjectMapper().readTree(out.toByteArray());
+    }
+
+    private static JsonNode find(JsonNode page, String token) {
+        for (JsonNode entry : page.get("webhooks")) {
+            if (token.equals(entry.get("token").asText())) {
+                return entry;
+            }
+        }
+        throw new AssertionError("No entry for " + token);
+    }
+}
@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.webhookstep;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class WebhookTimerWheelTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final List<String> fired = new ArrayList<>();
+
+    @Test
+    public void testFiresOnceDeadlineIsReached() {
+        WebhookTimerWheel wheel = new WebhookTimerWheel(100, 8, now::get);
+        wheel.schedule(250, () -> fired.add("timeout"));
+
+        now.set(249);
+        wheel.advance();
+        assertEquals(List.of(), fired);
+
+        // never before the deadline, at most a tick after it
+        now.set(300);
+        wheel.advance();
+        assertEquals(List.of("timeout"), fired);
+
+        now.set(1000);
+        wheel.advance();
+        assertEquals(List.of("timeout"), fired);
+    }
+
+    @Test
+    public void testDeadlinesBeyondOneRound() {
+        WebhookTimerWheel wheel = new WebhookTimerWheel(100, 4, now::get);
+        wheel.schedule(1000, () -> fired.add("late"));
+        wheel.schedule(200, () -> fired.add("early"));
+
+        now.set(500);
+        wheel.advance();
+        assertEquals(List.of("early"), fired);
+
+        now.set(999);
+        wheel.advance();
+        assertEquals(List.of("early"), fired);
+
+        now.set(1000);
+        wheel.advance();
+        assertEquals(List.of("early", "late"), fired);
+    }
+
+    @Test
+    public void testCancelledTimeoutsDoNotFire() {
+        WebhookTimerWheel wheel = new WebhookTimerWheel(100, 8, now::get);
+        wheel.schedule(100, () -> fired.add("cancelled before placement")).cancel();
+        wheel.advance();
+        WebhookTimerWheel.Timeout placed = wheel.schedule(200, () -> fired.add("cancelled after placement"));
+        wheel.advance();
+        placed.cancel();
+
+        now.set(500);
+        wheel.advance();
+        assertEquals(List.of(), fired);
+    }
+
+    @Test
+    public void testPastDeadlineFiresOnNextTick() {
+        WebhookTimerWheel wheel = new WebhookTimerWheel(100, 8, now::get);
+        now.set(750);
+        wheel.advance();
+        wheel.schedule(10, () -> fired.add("overdue"));
+
+        now.set(800);
+        wheel.advance();
+        assertEquals(List.of("overdue"), fired);
+    }
+}